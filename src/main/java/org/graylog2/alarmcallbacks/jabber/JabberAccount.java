@@ -0,0 +1,64 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One of the XMPP accounts alerts of a Jabber alarm callback can be sent from, with a connection configuration for
+ * each host of its service.
+ */
+public class JabberAccount {
+    private final String username;
+    private final String serviceName;
+    private final Map<JabberHost, XMPPTCPConnectionConfiguration> connectionConfigurations;
+    private final List<Object> sessionKey;
+
+    public JabberAccount(final String username,
+                         final String serviceName,
+                         final Map<JabberHost, XMPPTCPConnectionConfiguration> connectionConfigurations,
+                         final List<Object> sessionKey) {
+        this.username = username;
+        this.serviceName = serviceName;
+        this.connectionConfigurations = ImmutableMap.copyOf(connectionConfigurations);
+        this.sessionKey = sessionKey;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * @return the hosts of the service in their configured order
+     */
+    public List<JabberHost> getHosts() {
+        return ImmutableList.copyOf(connectionConfigurations.keySet());
+    }
+
+    public XMPPTCPConnectionConfiguration getConnectionConfiguration(final JabberHost host) {
+        return connectionConfigurations.get(host);
+    }
+
+    /**
+     * Key identifying all settings the session of this account depends on. Accounts with the same key share a
+     * {@link JabberSession}.
+     */
+    public List<Object> getSessionKey() {
+        return sessionKey;
+    }
+
+    /**
+     * @return identifier of the account on its service, without credentials
+     */
+    public String getId() {
+        return username + "@" + serviceName;
+    }
+
+    @Override
+    public String toString() {
+        return getId();
+    }
+}
@@ -0,0 +1,63 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring distributing recipients over the sender accounts of an alarm callback.
+ * <p>
+ * Every account is placed on the ring many times, so recipients are spread evenly, and adding or removing an
+ * account only moves the recipients of that account. The accounts following the one a recipient maps to are its
+ * failover accounts, so the share of an unavailable account is spread over the remaining ones as well.
+ */
+public class JabberAccountRing {
+    static final int VIRTUAL_NODES = 64;
+
+    private static final HashFunction HASH = Hashing.murmur3_32();
+
+    private final NavigableMap<Integer, JabberAccount> ring = new TreeMap<>();
+    private final int accounts;
+
+    public JabberAccountRing(final Collection<JabberAccount> accounts) {
+        for (JabberAccount account : accounts) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(account.getId() + "#" + i), account);
+            }
+        }
+        this.accounts = accounts.size();
+    }
+
+    /**
+     * @return all accounts, starting with the one the key maps to, followed by its failover accounts
+     */
+    public List<JabberAccount> preferenceOrder(final String key) {
+        final Set<JabberAccount> order = new LinkedHashSet<>(accounts);
+        final int hash = hash(key);
+        collect(ring.tailMap(hash, true), order);
+        collect(ring.headMap(hash, false), order);
+        return new ArrayList<>(order);
+    }
+
+    private void collect(final Map<Integer, JabberAccount> nodes, final Set<JabberAccount> order) {
+        for (JabberAccount account : nodes.values()) {
+            if (order.size() == accounts) {
+                return;
+            }
+            order.add(account);
+        }
+    }
+
+    private static int hash(final String key) {
+        return HASH.hashString(key, StandardCharsets.UTF_8).asInt();
+    }
+}
@@ -1,5 +1,6 @@
 package org.graylog2.alarmcallbacks.jabber;
 
+import com.google.common.collect.ImmutableMap;
 import org.graylog2.plugin.alarms.AlertCondition;
 import org.graylog2.plugin.alarms.callbacks.AlarmCallback;
 import org.graylog2.plugin.alarms.callbacks.AlarmCallbackConfigurationException;
@@ -9,105 +10,75 @@ import org.graylog2.plugin.configuration.ConfigurationException;
 import org.graylog2.plugin.configuration.ConfigurationRequest;
 import org.graylog2.plugin.configuration.fields.BooleanField;
 import org.graylog2.plugin.configuration.fields.ConfigurationField;
+import org.graylog2.plugin.configuration.fields.DropdownField;
 import org.graylog2.plugin.configuration.fields.NumberField;
 import org.graylog2.plugin.configuration.fields.TextField;
 import org.graylog2.plugin.streams.Stream;
-import org.jivesoftware.smack.SASLAuthentication;
-import org.jivesoftware.smack.packet.Message;
-import org.jivesoftware.smack.tcp.XMPPTCPConnection;
-import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
-import org.jivesoftware.smack.util.TLSUtils;
-import org.jxmpp.jid.parts.Resourcepart;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.inject.Inject;
 import java.util.HashMap;
 import java.util.Map;
 
-import static com.google.common.base.Strings.isNullOrEmpty;
-
 public class JabberAlarmCallback implements AlarmCallback {
     private static final Logger LOG = LoggerFactory.getLogger(JabberAlarmCallback.class);
 
-    private static final String CK_HOSTNAME = "hostname";
-    private static final String CK_SERVICE_NAME = "service_name";
-    private static final String CK_PORT = "port";
-    private static final String CK_ACCEPT_SELFSIGNED = "accept_selfsigned";
-    private static final String CK_USERNAME = "username";
-    private static final String CK_PASSWORD = "password";
-    private static final String CK_REQUIRE_SECURITY = "require_security";
-    private static final String CK_RECIPIENT = "recipient";
-
+    static final String CK_HOSTNAME = "hostname";
+    static final String CK_SERVICE_NAME = "service_name";
+    static final String CK_PORT = "port";
+    static final String CK_ACCEPT_SELFSIGNED = "accept_selfsigned";
+    static final String CK_USERNAME = "username";
+    static final String CK_PASSWORD = "password";
+    static final String CK_ADDITIONAL_ACCOUNTS = "additional_accounts";
+    static final String CK_REQUIRE_SECURITY = "require_security";
+    static final String CK_RECIPIENT = "recipient";
+    static final String CK_ESCALATION_RECIPIENTS = "escalation_recipients";
+    static final String CK_PRIORITY = "priority";
+    static final String CK_URGENT_PATTERN = "urgent_pattern";
+    static final String CK_QUEUE_CAPACITY = "queue_capacity";
+    static final String CK_OVERLOAD_POLICY = "overload_policy";
+    static final String CK_BLOCK_TIMEOUT = "block_timeout";
+
+    static final int DEFAULT_QUEUE_CAPACITY = 100;
+    static final int DEFAULT_BLOCK_TIMEOUT = 5000;
+
+    private final JabberDeliveryService deliveryService;
     private Configuration config;
+    private JabberDeliveryPlan plan;
+    private ConfigurationException planError;
+
+    @Inject
+    public JabberAlarmCallback(final JabberDeliveryService deliveryService) {
+        this.deliveryService = deliveryService;
+    }
 
     @Override
     public void initialize(final Configuration config) throws AlarmCallbackConfigurationException {
         this.config = config;
-    }
-
-    private XMPPTCPConnection login(final Configuration config) throws Exception {
-        final String serviceName = isNullOrEmpty(config.getString(CK_SERVICE_NAME))
-                ? config.getString(CK_HOSTNAME) : config.getString(CK_SERVICE_NAME);
-
-        final XMPPTCPConnectionConfiguration.Builder configBuilder = XMPPTCPConnectionConfiguration.builder()
-                .setHost(config.getString(CK_HOSTNAME))
-                .setPort(config.getInt(CK_PORT))
-                .setUsernameAndPassword(config.getString(CK_USERNAME), config.getString(CK_PASSWORD))
-                .setXmppDomain(serviceName)
-                .setResource(Resourcepart.from("graylog"))
-                .setSendPresence(false);
-
-        if (config.getBoolean(CK_ACCEPT_SELFSIGNED)) {
-            TLSUtils.acceptAllCertificates(configBuilder);
-        }
-
-        final boolean requireSecurity = config.getBoolean(CK_REQUIRE_SECURITY);
-        final XMPPTCPConnectionConfiguration.SecurityMode securityMode = requireSecurity ?
-                XMPPTCPConnectionConfiguration.SecurityMode.required : XMPPTCPConnectionConfiguration.SecurityMode.ifpossible;
-        configBuilder.setSecurityMode(securityMode);
-
-        final XMPPTCPConnectionConfiguration connectionConfiguration = configBuilder.build();
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Supported SASL authentications: {}", SASLAuthentication.getRegisterdSASLMechanisms());
-            LOG.debug("require_security: {}", requireSecurity);
-            LOG.debug("Security mode: {}", connectionConfiguration.getSecurityMode());
-            LOG.debug("Socket factory: {}", connectionConfiguration.getSocketFactory());
-            LOG.debug("Keystore: {}", connectionConfiguration.getKeystorePath());
-            LOG.debug("Keystore type: {}", connectionConfiguration.getKeystoreType());
+        try {
+            this.plan = JabberDeliveryPlan.compile(config);
+            this.planError = null;
+        } catch (ConfigurationException e) {
+            // Reported by checkConfiguration() or call(), after the mandatory fields have been checked.
+            this.plan = null;
+            this.planError = e;
+        } catch (RuntimeException e) {
+            this.plan = null;
+            this.planError = new ConfigurationException("Invalid Jabber configuration: " + e.getMessage());
         }
-
-        final XMPPTCPConnection xmppConnection = new XMPPTCPConnection(connectionConfiguration);
-
-        xmppConnection.connect();
-        xmppConnection.login();
-
-        return xmppConnection;
     }
 
     @Override
     public void call(final Stream stream, final AlertCondition.CheckResult result) throws AlarmCallbackException {
-        final XMPPTCPConnection connection;
-        try {
-            connection = login(config);
-        } catch (Exception e) {
-            final String serverString = String.format("%s:%d (service name: %s)",
-                    config.getString(CK_HOSTNAME),
-                    config.getInt(CK_PORT),
-                    isNullOrEmpty(config.getString(CK_SERVICE_NAME)) ? config.getString(CK_HOSTNAME) : config.getString(CK_SERVICE_NAME)
-            );
-            throw new AlarmCallbackException("Unable to connect to XMPP server " + serverString, e);
+        if (plan == null) {
+            throw new AlarmCallbackException("Invalid Jabber alarm callback configuration", planError);
         }
 
-        final String messageRecipient = config.getString(CK_RECIPIENT);
-        final String messageBody = new JabberAlarmCallbackFormatter().render(stream, result);
-        try {
-            final Message message = new Message(messageRecipient, messageBody);
-            connection.sendStanza(message);
-        } catch (Exception e) {
-            throw new AlarmCallbackException("Unable to send message", e);
-        } finally {
-            connection.disconnect();
-        }
+        final JabberAlertTrace trace = new JabberAlertTrace();
+        final JabberAlertPriority priority = plan.priorityOf(result.getTriggeredCondition());
+
+        deliveryService.deliver(new JabberAlert(plan, JabberAlertSnapshot.of(stream, result), priority, trace));
     }
 
     @Override
@@ -120,10 +91,16 @@ public class JabberAlarmCallback implements AlarmCallback {
                 "Recipient of XMPP messages",
                 ConfigurationField.Optional.NOT_OPTIONAL));
 
+        cr.addField(new TextField(CK_ESCALATION_RECIPIENTS,
+                "Escalation Recipients",
+                "",
+                "Comma separated JIDs to send alerts to, in this order, if the recipient is offline. The recipients need to accept the presence subscription of the sender account.",
+                ConfigurationField.Optional.OPTIONAL));
+
         cr.addField(new TextField(CK_HOSTNAME,
                 "Hostname",
                 "localhost",
-                "Hostname of XMPP server",
+                "Hostname of XMPP server. Several servers of the same service can be given comma separated, each optionally with its own ':port'. New sessions prefer the fastest server and fail over to the others.",
                 ConfigurationField.Optional.NOT_OPTIONAL));
 
         cr.addField(new NumberField(CK_PORT,
@@ -155,12 +132,59 @@ public class JabberAlarmCallback implements AlarmCallback {
                 ConfigurationField.Optional.NOT_OPTIONAL,
                 TextField.Attribute.IS_PASSWORD));
 
+        cr.addField(new TextField(CK_ADDITIONAL_ACCOUNTS,
+                "Additional Accounts",
+                "",
+                "Further accounts to spread alerts over if the server limits the message rate per account, one 'username:password' per line. Each recipient is served by one account and fails over to the others.",
+                ConfigurationField.Optional.OPTIONAL,
+                TextField.Attribute.IS_PASSWORD,
+                TextField.Attribute.TEXTAREA));
+
         cr.addField(new TextField(CK_SERVICE_NAME,
                 "XMPP Domain Name",
                 "",
                 "The domain name of the server, e. g. 'example.org' of the JID 'user@example.org'. If not specified, the hostname is being used.",
                 ConfigurationField.Optional.OPTIONAL));
 
+        cr.addField(new DropdownField(CK_PRIORITY,
+                "Priority",
+                JabberAlertPriority.URGENT.getName(),
+                ImmutableMap.of(
+                        JabberAlertPriority.AUTO, "Automatic (by alert condition)",
+                        JabberAlertPriority.URGENT.getName(), "Urgent (send immediately)",
+                        JabberAlertPriority.NORMAL.getName(), "Normal (queue and coalesce)"),
+                "Urgent alerts are sent immediately and delivery failures are reported to Graylog, normal alerts are queued and coalesced with other pending alerts.",
+                ConfigurationField.Optional.OPTIONAL));
+
+        cr.addField(new TextField(CK_URGENT_PATTERN,
+                "Urgent Alert Pattern",
+                "(?i)critical|urgent|emergency",
+                "Regular expression matched against the alert condition title and type if the priority is automatic.",
+                ConfigurationField.Optional.OPTIONAL));
+
+        cr.addField(new NumberField(CK_QUEUE_CAPACITY,
+                "Queue Capacity",
+                DEFAULT_QUEUE_CAPACITY,
+                "Maximum number of normal alerts waiting for delivery to this recipient.",
+                ConfigurationField.Optional.OPTIONAL));
+
+        cr.addField(new DropdownField(CK_OVERLOAD_POLICY,
+                "Overload Policy",
+                JabberOverloadPolicy.COLLAPSE.getName(),
+                ImmutableMap.of(
+                        JabberOverloadPolicy.BLOCK.getName(), "Block until there is room in the queue",
+                        JabberOverloadPolicy.DROP_OLDEST.getName(), "Drop the oldest queued alert",
+                        JabberOverloadPolicy.DROP_NEWEST.getName(), "Drop the new alert",
+                        JabberOverloadPolicy.COLLAPSE.getName(), "Collapse new alerts into a summary"),
+                "What to do with new alerts if the queue is full. Suppressed alerts are reported once the queue has drained.",
+                ConfigurationField.Optional.OPTIONAL));
+
+        cr.addField(new NumberField(CK_BLOCK_TIMEOUT,
+                "Block Timeout",
+                DEFAULT_BLOCK_TIMEOUT,
+                "Milliseconds to wait for room in the queue with the blocking overload policy before dropping the alert.",
+                ConfigurationField.Optional.OPTIONAL));
+
         return cr;
     }
 
@@ -179,6 +203,9 @@ public class JabberAlarmCallback implements AlarmCallback {
         if (attributes.containsKey(CK_PASSWORD)) {
             attributes.put(CK_PASSWORD, "******");
         }
+        if (attributes.containsKey(CK_ADDITIONAL_ACCOUNTS)) {
+            attributes.put(CK_ADDITIONAL_ACCOUNTS, "******");
+        }
 
         return attributes;
     }
@@ -209,5 +236,9 @@ public class JabberAlarmCallback implements AlarmCallback {
         if (1 < port && port > 65535) {
             throw new ConfigurationException(CK_PORT + " must be between 1 and 65535.");
         }
+
+        if (planError != null) {
+            throw planError;
+        }
     }
 }
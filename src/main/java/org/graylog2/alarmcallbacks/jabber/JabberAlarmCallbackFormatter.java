@@ -1,39 +1,110 @@
 package org.graylog2.alarmcallbacks.jabber;
 
-import org.graylog2.plugin.MessageSummary;
 import org.graylog2.plugin.alarms.AlertCondition;
 import org.graylog2.plugin.streams.Stream;
-import org.joda.time.DateTime;
+
+import java.util.List;
 
 public class JabberAlarmCallbackFormatter {
+    /**
+     * Upper bound of the UTF-8 encoded body of a message. Prosody closes the stream on stanzas larger than
+     * 256 KiB, the rest is left for the stanza envelope and XML escaping.
+     */
+    static final int MAX_MESSAGE_BYTES = 128 * 1024;
+    /**
+     * Room kept for the line counting the backlog messages which have been left out.
+     */
+    private static final int OMITTED_LINE_BYTES = 32;
+
+    private final JabberBufferPool bufferPool;
+
+    public JabberAlarmCallbackFormatter() {
+        this(JabberBufferPool.shared());
+    }
+
+    public JabberAlarmCallbackFormatter(final JabberBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
     public String render(final Stream stream, final AlertCondition.CheckResult result) {
-        final StringBuilder messageBacklog = new StringBuilder();
-        if (result.getMatchingMessages().size() == 0) {
-            messageBacklog.append("No message backlog available.");
+        return render(JabberAlertSnapshot.of(stream, result));
+    }
+
+    public String render(final JabberAlertSnapshot snapshot) {
+        final StringBuilder buffer = bufferPool.acquire();
+        try {
+            renderTo(snapshot, buffer);
+            return buffer.toString();
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Renders the message body in a single pass into {@code out}, without any intermediate strings.
+     * <p>
+     * Backlog lines which would make the body exceed {@link #MAX_MESSAGE_BYTES} are left out and counted like
+     * the messages the snapshot has already left out, so a single alert stays within the stanza limit of the server.
+     */
+    public void renderTo(final JabberAlertSnapshot snapshot, final StringBuilder out) {
+        final int start = out.length();
+        out.append("Graylog alert for stream <").append(snapshot.getStreamTitle()).append(">\n\n")
+                .append("Stream ID: ").append(snapshot.getStreamId()).append('\n');
+
+        if (snapshot.getTriggeredAt() != null) {
+            out.append("Date: ");
+            JabberAlertSnapshot.appendTimestamp(out, snapshot.getTriggeredAt());
+            out.append('\n');
+        }
+
+        if (snapshot.getConditionDescription() != null) {
+            out.append("Trigger: ").append(snapshot.getConditionTitle()).append(" (").append(snapshot.getConditionType()).append(")\n")
+                    .append("Triggered condition: ").append(snapshot.getConditionDescription()).append('\n');
+        }
+
+        out.append('\n')
+                .append("---- Messages ----").append('\n');
+
+        final List<String> backlog = snapshot.getBacklog();
+        if (backlog.isEmpty()) {
+            out.append("No message backlog available.");
         } else {
-            for (MessageSummary message : result.getMatchingMessages()) {
-                messageBacklog
-                        .append(message.getTimestamp())
-                        .append(" - ")
-                        .append(message.getMessage())
-                        .append("\n");
+            long bytes = encodedLength(out, start, out.length());
+            int omitted = snapshot.getOmittedBacklog();
+            for (int i = 0; i < backlog.size(); i++) {
+                final String line = backlog.get(i);
+                final long lineBytes = encodedLength(line, 0, line.length()) + 1L;
+                // The last line doesn't need room for the omission line, unless the snapshot has left out messages.
+                final boolean last = i == backlog.size() - 1 && omitted == 0;
+                if (bytes + lineBytes + (last ? 0L : OMITTED_LINE_BYTES) > MAX_MESSAGE_BYTES) {
+                    omitted += backlog.size() - i;
+                    break;
+                }
+                out.append(line).append('\n');
+                bytes += lineBytes;
+            }
+            if (omitted > 0) {
+                out.append("(").append(omitted).append(" more messages)\n");
             }
         }
+    }
 
-        final AlertCondition condition = result.getTriggeredCondition();
-        final String triggeredCondition = condition == null ? "" :
-                "Trigger: " + condition.getTitle() + " (" + condition.getType() + ")" + "\n"
-                + "Triggered condition: " + condition + "\n";
-
-        final DateTime resultTriggeredAt = result.getTriggeredAt();
-        final String triggeredAt = resultTriggeredAt == null ? "" : "Date: " + resultTriggeredAt + "\n";
-
-        return "Graylog alert for stream <" + stream.getTitle() + ">\n\n"
-                + "Stream ID: " + stream.getId() + "\n"
-                + triggeredAt
-                + triggeredCondition
-                + "\n"
-                + "---- Messages ----" + "\n"
-                + messageBacklog.toString();
+    /**
+     * @return the length of the characters between {@code start} and {@code end} in UTF-8
+     */
+    static long encodedLength(final CharSequence chars, final int start, final int end) {
+        long length = 0L;
+        for (int i = start; i < end; i++) {
+            final char c = chars.charAt(i);
+            if (c < 0x80) {
+                length += 1L;
+            } else if (c < 0x800 || Character.isSurrogate(c)) {
+                // Each half of a surrogate pair counts two of the four bytes of the pair.
+                length += 2L;
+            } else {
+                length += 3L;
+            }
+        }
+        return length;
     }
 }
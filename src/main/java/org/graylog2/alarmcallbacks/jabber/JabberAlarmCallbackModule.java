@@ -1,10 +1,23 @@
 package org.graylog2.alarmcallbacks.jabber;
 
+import org.graylog2.alarmcallbacks.jabber.rest.JabberStatusResource;
+import org.graylog2.plugin.PluginConfigBean;
 import org.graylog2.plugin.PluginModule;
 
+import java.util.Collections;
+import java.util.Set;
+
 public class JabberAlarmCallbackModule extends PluginModule {
+    @Override
+    public Set<? extends PluginConfigBean> getConfigBeans() {
+        return Collections.singleton(new JabberPluginConfiguration());
+    }
+
     @Override
     protected void configure() {
+        addConfigBeans();
         addAlarmCallback(JabberAlarmCallback.class);
+        addRestResource(JabberStatusResource.class);
+        serviceBinder().addBinding().to(JabberDeliveryLifecycleService.class);
     }
 }
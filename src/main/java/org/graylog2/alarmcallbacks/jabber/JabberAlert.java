@@ -0,0 +1,55 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+/**
+ * An alert waiting for delivery. It is rendered when it is sent, so alerts which are dropped or collapsed are
+ * never rendered at all.
+ */
+public class JabberAlert {
+    private final JabberDeliveryPlan plan;
+    private final JabberAlertSnapshot snapshot;
+    private final JabberAlertPriority priority;
+    private final JabberAlertTrace trace;
+    private final long createdAtNanos;
+
+    public JabberAlert(final JabberDeliveryPlan plan,
+                       final JabberAlertSnapshot snapshot,
+                       final JabberAlertPriority priority,
+                       final JabberAlertTrace trace) {
+        this.plan = plan;
+        this.snapshot = snapshot;
+        this.priority = priority;
+        this.trace = trace;
+        this.createdAtNanos = System.nanoTime();
+        trace.setPriority(priority);
+    }
+
+    public JabberDeliveryPlan getPlan() {
+        return plan;
+    }
+
+    public JabberAlertSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Renders the message body of the alert into {@code out} and records the {@link JabberAlertTrace.Span#RENDER}
+     * span.
+     */
+    public void renderTo(final StringBuilder out) {
+        final long renderStart = System.nanoTime();
+        plan.getFormatter().renderTo(snapshot, out);
+        trace.record(JabberAlertTrace.Span.RENDER, renderStart);
+    }
+
+    public JabberAlertPriority getPriority() {
+        return priority;
+    }
+
+    public JabberAlertTrace getTrace() {
+        return trace;
+    }
+
+    public long getCreatedAtNanos() {
+        return createdAtNanos;
+    }
+}
@@ -0,0 +1,41 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import org.graylog2.plugin.alarms.AlertCondition;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Delivery lane of an alert. Urgent alerts are sent immediately on the calling thread, over the pooled session of
+ * their account, normal alerts are queued and coalesced with other pending alerts for the same recipient.
+ */
+public enum JabberAlertPriority {
+    URGENT,
+    NORMAL;
+
+    /**
+     * Configuration value for deriving the priority of each alert with {@link #classify(Pattern, AlertCondition)}.
+     */
+    public static final String AUTO = "auto";
+
+    public static JabberAlertPriority fromName(final String name) {
+        return valueOf(name.toUpperCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Alerts whose condition title or type matches {@code urgentPattern} are urgent, all others are normal.
+     */
+    public static JabberAlertPriority classify(final Pattern urgentPattern, final AlertCondition condition) {
+        if (urgentPattern == null || condition == null) {
+            return NORMAL;
+        }
+
+        final boolean urgent = (condition.getTitle() != null && urgentPattern.matcher(condition.getTitle()).find())
+                || (condition.getType() != null && urgentPattern.matcher(condition.getType()).find());
+        return urgent ? URGENT : NORMAL;
+    }
+
+    public String getName() {
+        return name().toLowerCase(Locale.ENGLISH);
+    }
+}
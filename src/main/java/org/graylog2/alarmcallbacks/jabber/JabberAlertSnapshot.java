@@ -0,0 +1,145 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.MessageSummary;
+import org.graylog2.plugin.alarms.AlertCondition;
+import org.graylog2.plugin.streams.Stream;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.util.List;
+
+/**
+ * Immutable copy of the parts of a triggered alert which end up in the message, taken when the alert is handed to
+ * the delivery service.
+ * <p>
+ * Queued alerts only hold on to this snapshot instead of the {@link AlertCondition.CheckResult}, so the matching
+ * {@link MessageSummary message summaries} with all their fields can be garbage collected straight away. The
+ * backlog is kept as already formatted lines of bounded length and number, so the memory of a queued alert is
+ * small and predictable.
+ */
+public class JabberAlertSnapshot {
+    static final int MAX_BACKLOG_LINES = 100;
+    static final int MAX_MESSAGE_LENGTH = 1000;
+    static final String TRUNCATION_MARKER = " [...]";
+
+    // Same format as DateTime#toString(), but printed straight into the target buffer.
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = ISODateTimeFormat.dateTime();
+
+    private final String streamId;
+    private final String streamTitle;
+    private final DateTime triggeredAt;
+    private final String conditionTitle;
+    private final String conditionType;
+    private final String conditionDescription;
+    private final List<String> backlog;
+    private final int omittedBacklog;
+
+    public JabberAlertSnapshot(final String streamId,
+                               final String streamTitle,
+                               final DateTime triggeredAt,
+                               final String conditionTitle,
+                               final String conditionType,
+                               final String conditionDescription,
+                               final List<String> backlog,
+                               final int omittedBacklog) {
+        this.streamId = streamId;
+        this.streamTitle = streamTitle;
+        this.triggeredAt = triggeredAt;
+        this.conditionTitle = conditionTitle;
+        this.conditionType = conditionType;
+        this.conditionDescription = conditionDescription;
+        this.backlog = ImmutableList.copyOf(backlog);
+        this.omittedBacklog = omittedBacklog;
+    }
+
+    public static JabberAlertSnapshot of(final Stream stream, final AlertCondition.CheckResult result) {
+        final AlertCondition condition = result.getTriggeredCondition();
+        final List<MessageSummary> messages = result.getMatchingMessages();
+
+        final ImmutableList.Builder<String> backlog = ImmutableList.builder();
+        final StringBuilder line = new StringBuilder();
+        for (MessageSummary message : messages.subList(0, Math.min(messages.size(), MAX_BACKLOG_LINES))) {
+            line.setLength(0);
+            appendTimestamp(line, message.getTimestamp());
+            line.append(" - ");
+            appendTruncated(line, message.getMessage());
+            backlog.add(line.toString());
+        }
+
+        return new JabberAlertSnapshot(
+                stream.getId(),
+                stream.getTitle(),
+                result.getTriggeredAt(),
+                condition == null ? null : condition.getTitle(),
+                condition == null ? null : condition.getType(),
+                condition == null ? null : condition.toString(),
+                backlog.build(),
+                Math.max(messages.size() - MAX_BACKLOG_LINES, 0));
+    }
+
+    private static void appendTruncated(final StringBuilder out, final String message) {
+        if (message == null || message.length() <= MAX_MESSAGE_LENGTH) {
+            out.append(message);
+        } else {
+            out.append(message, 0, MAX_MESSAGE_LENGTH).append(TRUNCATION_MARKER);
+        }
+    }
+
+    static void appendTimestamp(final StringBuilder out, final DateTime timestamp) {
+        if (timestamp == null) {
+            out.append((Object) null);
+        } else {
+            TIMESTAMP_FORMAT.printTo(out, timestamp);
+        }
+    }
+
+    public String getStreamId() {
+        return streamId;
+    }
+
+    public String getStreamTitle() {
+        return streamTitle;
+    }
+
+    public DateTime getTriggeredAt() {
+        return triggeredAt;
+    }
+
+    /**
+     * @return the title of the triggered condition or {@code null} if there is no triggered condition
+     */
+    public String getConditionTitle() {
+        return conditionTitle;
+    }
+
+    public String getConditionType() {
+        return conditionType;
+    }
+
+    public String getConditionDescription() {
+        return conditionDescription;
+    }
+
+    /**
+     * @return the formatted lines of the message backlog, without line breaks
+     */
+    public List<String> getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * @return the number of backlog messages which have been left out because there were too many
+     */
+    public int getOmittedBacklog() {
+        return omittedBacklog;
+    }
+
+    /**
+     * @return the first line of the message, used to summarize alerts which have been collapsed
+     */
+    public String getHeadline() {
+        return "Graylog alert for stream <" + streamTitle + ">";
+    }
+}
@@ -0,0 +1,133 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timing of a single alert on its way from rendering to the acknowledgement by the XMPP server.
+ * <p>
+ * The correlation ID is included in log messages about the alert, so a slow or failed trace can be matched with
+ * the log of the node.
+ */
+public class JabberAlertTrace {
+    public enum Span {
+        RENDER,
+        QUEUE_WAIT,
+        CONNECTION_ACQUIRE,
+        SEND_STANZA,
+        SERVER_ACK;
+
+        public String getName() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+    }
+
+    private final String correlationId;
+    private final DateTime startedAt;
+    private final long startedAtNanos;
+    private final Map<Span, Long> spanNanos = new EnumMap<>(Span.class);
+
+    private JabberAlertPriority priority;
+    private int attempts = 0;
+    private long totalNanos = -1L;
+    private String failure;
+
+    public JabberAlertTrace() {
+        this.correlationId = UUID.randomUUID().toString();
+        this.startedAt = DateTime.now(DateTimeZone.UTC);
+        this.startedAtNanos = System.nanoTime();
+    }
+
+    /**
+     * Records the duration of a span which started at {@code startNanos}.
+     */
+    public synchronized void record(final Span span, final long startNanos) {
+        spanNanos.put(span, System.nanoTime() - startNanos);
+    }
+
+    public static void record(final Collection<JabberAlertTrace> traces, final Span span, final long startNanos) {
+        for (JabberAlertTrace trace : traces) {
+            trace.record(span, startNanos);
+        }
+    }
+
+    public synchronized void setPriority(final JabberAlertPriority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Records the start of another attempt to deliver the alert.
+     */
+    public synchronized void attemptStarted() {
+        attempts++;
+    }
+
+    synchronized void complete(final String failure) {
+        this.totalNanos = System.nanoTime() - startedAtNanos;
+        this.failure = failure;
+    }
+
+    public String getCorrelationId() {
+        return correlationId;
+    }
+
+    public DateTime getStartedAt() {
+        return startedAt;
+    }
+
+    public synchronized JabberAlertPriority getPriority() {
+        return priority;
+    }
+
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+
+    public synchronized boolean isComplete() {
+        return totalNanos >= 0L;
+    }
+
+    public synchronized long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public synchronized String getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return the duration of each recorded span in milliseconds, in the order the spans happen
+     */
+    public synchronized Map<String, Double> getSpanMillis() {
+        final Map<String, Double> spans = new LinkedHashMap<>();
+        for (Map.Entry<Span, Long> entry : spanNanos.entrySet()) {
+            spans.put(entry.getKey().getName(), toMillis(entry.getValue()));
+        }
+        return spans;
+    }
+
+    private static double toMillis(final long nanos) {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1L);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "JabberAlertTrace{" +
+                "correlationId='" + correlationId + '\'' +
+                ", startedAt=" + startedAt +
+                ", priority=" + priority +
+                ", attempts=" + attempts +
+                ", totalMillis=" + (totalNanos < 0L ? "n/a" : toMillis(totalNanos)) +
+                ", spanMillis=" + getSpanMillis() +
+                ", failure=" + failure +
+                '}';
+    }
+}
@@ -0,0 +1,89 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts the batch size and flush interval of a destination to the observed latency, keeping the end-to-end latency
+ * of queued alerts below a target while sending as few messages as possible.
+ * <p>
+ * After every batch the controller looks at how long the oldest alert of the batch took from being queued until
+ * it has been sent, and at how long sending and the XEP-0198 acknowledgement of the server took:
+ * <ul>
+ * <li>If the target has been missed, the flush interval is halved. If sending alone is slow, or the server is slow
+ * to acknowledge, the batch size is halved as well.</li>
+ * <li>Otherwise, a full batch means alerts arrive faster than they are sent, so the batch size grows. A batch of a
+ * single alert means there was nothing to coalesce, so the flush interval shrinks. In between, the flush interval
+ * grows towards the part of the target which is not needed for sending.</li>
+ * </ul>
+ */
+public class JabberBatchController {
+    static final int INITIAL_BATCH_SIZE = 50;
+    static final int MIN_BATCH_SIZE = 1;
+    static final int MAX_BATCH_SIZE = 500;
+    static final int BATCH_SIZE_STEP = 10;
+    static final long INITIAL_FLUSH_INTERVAL_MILLIS = 1000L;
+    static final long MIN_FLUSH_INTERVAL_MILLIS = 20L;
+    static final long MAX_FLUSH_INTERVAL_MILLIS = 10000L;
+    static final long FLUSH_INTERVAL_STEP_MILLIS = 100L;
+
+    /**
+     * Weight of the most recent observation in the moving averages of the send and acknowledgement latencies.
+     */
+    private static final double SMOOTHING = 0.3d;
+
+    private final long targetLatencyNanos;
+
+    private int batchSize = INITIAL_BATCH_SIZE;
+    private long flushIntervalMillis = INITIAL_FLUSH_INTERVAL_MILLIS;
+    private double sendLatencyNanos = -1d;
+    private double ackLatencyNanos = -1d;
+
+    public JabberBatchController(final long targetLatencyMillis) {
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+    }
+
+    /**
+     * Records the round-trip of a XEP-0198 acknowledgement request.
+     */
+    public synchronized void acknowledged(final long ackNanos) {
+        ackLatencyNanos = average(ackLatencyNanos, ackNanos);
+    }
+
+    /**
+     * Adapts batch size and flush interval to a batch which has been sent successfully.
+     *
+     * @param alerts        number of alerts in the batch
+     * @param endToEndNanos time from queueing the oldest alert of the batch until it has been sent
+     * @param sendNanos     time it took to connect, send and wait for the acknowledgement
+     */
+    public synchronized void batchSent(final int alerts, final long endToEndNanos, final long sendNanos) {
+        sendLatencyNanos = average(sendLatencyNanos, sendNanos);
+
+        if (endToEndNanos > targetLatencyNanos) {
+            flushIntervalMillis = Math.max(MIN_FLUSH_INTERVAL_MILLIS, flushIntervalMillis / 2L);
+            if (sendLatencyNanos > targetLatencyNanos / 2L || ackLatencyNanos > targetLatencyNanos / 4L) {
+                batchSize = Math.max(MIN_BATCH_SIZE, batchSize / 2);
+            }
+        } else if (alerts >= batchSize) {
+            batchSize = Math.min(MAX_BATCH_SIZE, batchSize + BATCH_SIZE_STEP);
+        } else if (alerts <= 1) {
+            flushIntervalMillis = Math.max(MIN_FLUSH_INTERVAL_MILLIS, flushIntervalMillis / 2L);
+        } else {
+            final long budgetMillis = TimeUnit.NANOSECONDS.toMillis(targetLatencyNanos - (long) sendLatencyNanos) / 2L;
+            final long ceiling = Math.max(MIN_FLUSH_INTERVAL_MILLIS, Math.min(MAX_FLUSH_INTERVAL_MILLIS, budgetMillis));
+            flushIntervalMillis = Math.min(ceiling, flushIntervalMillis + FLUSH_INTERVAL_STEP_MILLIS);
+        }
+    }
+
+    private static double average(final double average, final long sample) {
+        return average < 0d ? sample : SMOOTHING * sample + (1d - SMOOTHING) * average;
+    }
+
+    public synchronized int getBatchSize() {
+        return batchSize;
+    }
+
+    public synchronized long getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+}
@@ -0,0 +1,46 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Small pool of {@link StringBuilder} instances used to render and batch message bodies.
+ * <p>
+ * Reusing the builders means the backing arrays are only allocated once they have to grow beyond the largest
+ * message seen so far, instead of once or several times per alert. Builders which grew beyond
+ * {@link #MAX_RETAINED_CAPACITY} are not returned to the pool so a single huge backlog isn't kept on the heap forever.
+ */
+public class JabberBufferPool {
+    static final int INITIAL_CAPACITY = 4 * 1024;
+    static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+    static final int MAX_POOLED_BUFFERS = 16;
+
+    private static final JabberBufferPool SHARED = new JabberBufferPool(MAX_POOLED_BUFFERS);
+
+    private final BlockingQueue<StringBuilder> buffers;
+
+    public JabberBufferPool(final int maxPooledBuffers) {
+        this.buffers = new ArrayBlockingQueue<>(maxPooledBuffers);
+    }
+
+    public static JabberBufferPool shared() {
+        return SHARED;
+    }
+
+    public StringBuilder acquire() {
+        final StringBuilder buffer = buffers.poll();
+        return buffer == null ? new StringBuilder(INITIAL_CAPACITY) : buffer;
+    }
+
+    public void release(final StringBuilder buffer) {
+        if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+            return;
+        }
+        buffer.setLength(0);
+        buffers.offer(buffer);
+    }
+
+    public int size() {
+        return buffers.size();
+    }
+}
@@ -0,0 +1,39 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.util.concurrent.AbstractIdleService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Ties the {@link JabberDeliveryService} to the lifecycle of the Graylog node, so queued and in-flight alerts are
+ * delivered and the XMPP sessions are closed cleanly when the node shuts down.
+ */
+@Singleton
+public class JabberDeliveryLifecycleService extends AbstractIdleService {
+    private static final Logger LOG = LoggerFactory.getLogger(JabberDeliveryLifecycleService.class);
+
+    private final JabberDeliveryService deliveryService;
+    private final Duration shutdownTimeout;
+
+    @Inject
+    public JabberDeliveryLifecycleService(final JabberDeliveryService deliveryService,
+                                          @Named(JabberPluginConfiguration.SHUTDOWN_TIMEOUT) final Duration shutdownTimeout) {
+        this.deliveryService = deliveryService;
+        this.shutdownTimeout = shutdownTimeout;
+    }
+
+    @Override
+    protected void startUp() {
+    }
+
+    @Override
+    protected void shutDown() {
+        LOG.debug("Delivering queued Jabber alerts before shutdown, waiting up to {}", shutdownTimeout);
+        deliveryService.shutdown(shutdownTimeout.toMilliseconds());
+    }
+}
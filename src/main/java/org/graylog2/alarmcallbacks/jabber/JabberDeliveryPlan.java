@@ -0,0 +1,320 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.net.HostAndPort;
+import org.graylog2.plugin.alarms.AlertCondition;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.configuration.ConfigurationException;
+import org.jivesoftware.smack.SASLAuthentication;
+import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
+import org.jivesoftware.smack.util.TLSUtils;
+import org.jxmpp.jid.EntityBareJid;
+import org.jxmpp.jid.impl.JidCreate;
+import org.jxmpp.jid.parts.Resourcepart;
+import org.jxmpp.stringprep.XmppStringprepException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static org.graylog2.alarmcallbacks.jabber.JabberAlarmCallback.CK_ACCEPT_SELFSIGNED;
+import static org.graylog2.alarmcallbacks.jabber.JabberAlarmCallback.CK_ADDITIONAL_ACCOUNTS;
+import static org.graylog2.alarmcallbacks.jabber.JabberAlarmCallback.CK_BLOCK_TIMEOUT;
+import static org.graylog2.alarmcallbacks.jabber.JabberAlarmCallback.CK_ESCALATION_RECIPIENTS;
+import static org.graylog2.alarmcallbacks.jabber.JabberAlarmCallback.CK_HOSTNAME;
+import static org.graylog2.alarmcallbacks.jabber.JabberAlarmCallback.CK_OVERLOAD_POLICY;
+import static org.graylog2.alarmcallbacks.jabber.JabberAlarmCallback.CK_PASSWORD;
+import static org.graylog2.alarmcallbacks.jabber.JabberAlarmCallback.CK_PORT;
+import static org.graylog2.alarmcallbacks.jabber.JabberAlarmCallback.CK_PRIORITY;
+import static org.graylog2.alarmcallbacks.jabber.JabberAlarmCallback.CK_QUEUE_CAPACITY;
+import static org.graylog2.alarmcallbacks.jabber.JabberAlarmCallback.CK_RECIPIENT;
+import static org.graylog2.alarmcallbacks.jabber.JabberAlarmCallback.CK_REQUIRE_SECURITY;
+import static org.graylog2.alarmcallbacks.jabber.JabberAlarmCallback.CK_SERVICE_NAME;
+import static org.graylog2.alarmcallbacks.jabber.JabberAlarmCallback.CK_URGENT_PATTERN;
+import static org.graylog2.alarmcallbacks.jabber.JabberAlarmCallback.CK_USERNAME;
+import static org.graylog2.alarmcallbacks.jabber.JabberAlarmCallback.DEFAULT_BLOCK_TIMEOUT;
+import static org.graylog2.alarmcallbacks.jabber.JabberAlarmCallback.DEFAULT_QUEUE_CAPACITY;
+
+/**
+ * Immutable result of compiling the configuration of a Jabber alarm callback once in
+ * {@link JabberAlarmCallback#initialize(Configuration)}, so that delivering an alert only has to render and send.
+ */
+public class JabberDeliveryPlan {
+    private static final Logger LOG = LoggerFactory.getLogger(JabberDeliveryPlan.class);
+
+    private final List<JabberAccount> accounts;
+    private final List<EntityBareJid> recipients;
+    private final String serverDescription;
+    private final JabberAlarmCallbackFormatter formatter;
+    private final JabberAlertPriority fixedPriority;
+    private final Pattern urgentPattern;
+    private final JabberQueueSettings queueSettings;
+    private final List<Object> destinationKey;
+    private final String destinationName;
+
+    private JabberDeliveryPlan(final List<JabberAccount> accounts,
+                               final List<EntityBareJid> recipients,
+                               final String serverDescription,
+                               final JabberAlarmCallbackFormatter formatter,
+                               final JabberAlertPriority fixedPriority,
+                               final Pattern urgentPattern,
+                               final JabberQueueSettings queueSettings,
+                               final List<Object> destinationKey,
+                               final String destinationName) {
+        this.accounts = accounts;
+        this.recipients = recipients;
+        this.serverDescription = serverDescription;
+        this.formatter = formatter;
+        this.fixedPriority = fixedPriority;
+        this.urgentPattern = urgentPattern;
+        this.queueSettings = queueSettings;
+        this.destinationKey = destinationKey;
+        this.destinationName = destinationName;
+    }
+
+    public static JabberDeliveryPlan compile(final Configuration config) throws ConfigurationException {
+        final List<JabberHost> hosts = parseHosts(config.getString(CK_HOSTNAME), config.getInt(CK_PORT));
+        final String serviceName = isNullOrEmpty(config.getString(CK_SERVICE_NAME)) ? hosts.get(0).getHostname() : config.getString(CK_SERVICE_NAME);
+        final boolean requireSecurity = config.getBoolean(CK_REQUIRE_SECURITY);
+        final boolean acceptSelfSigned = config.getBoolean(CK_ACCEPT_SELFSIGNED);
+
+        final EntityBareJid recipient;
+        try {
+            recipient = JidCreate.entityBareFrom(config.getString(CK_RECIPIENT));
+        } catch (XmppStringprepException e) {
+            throw new ConfigurationException(CK_RECIPIENT + " is not a valid JID: " + e.getMessage());
+        }
+
+        final ImmutableList.Builder<EntityBareJid> recipients = ImmutableList.<EntityBareJid>builder().add(recipient);
+        final String escalationRecipients = config.getString(CK_ESCALATION_RECIPIENTS);
+        if (!isNullOrEmpty(escalationRecipients)) {
+            for (String escalationRecipient : Splitter.on(',').trimResults().omitEmptyStrings().split(escalationRecipients)) {
+                try {
+                    recipients.add(JidCreate.entityBareFrom(escalationRecipient));
+                } catch (XmppStringprepException e) {
+                    throw new ConfigurationException(CK_ESCALATION_RECIPIENTS + " contains an invalid JID: " + e.getMessage());
+                }
+            }
+        }
+        final List<EntityBareJid> escalationList = recipients.build();
+
+        final Map<String, String> credentials = new LinkedHashMap<>();
+        credentials.put(config.getString(CK_USERNAME), config.getString(CK_PASSWORD));
+        parseAdditionalAccounts(config.getString(CK_ADDITIONAL_ACCOUNTS), credentials);
+
+        final XMPPTCPConnectionConfiguration.SecurityMode securityMode = requireSecurity ?
+                XMPPTCPConnectionConfiguration.SecurityMode.required : XMPPTCPConnectionConfiguration.SecurityMode.ifpossible;
+        final List<JabberAccount> accounts = new ArrayList<>(credentials.size());
+        for (Map.Entry<String, String> account : credentials.entrySet()) {
+            final Map<JabberHost, XMPPTCPConnectionConfiguration> connectionConfigurations = new LinkedHashMap<>();
+            for (JabberHost host : hosts) {
+                connectionConfigurations.put(host, buildConnectionConfiguration(host, serviceName, account.getKey(),
+                        account.getValue(), acceptSelfSigned, securityMode));
+            }
+            final List<Object> sessionKey = ImmutableList.of(hosts, serviceName, account.getKey(), account.getValue(),
+                    requireSecurity, acceptSelfSigned);
+            accounts.add(new JabberAccount(account.getKey(), serviceName, connectionConfigurations, sessionKey));
+        }
+
+        if (LOG.isDebugEnabled()) {
+            final XMPPTCPConnectionConfiguration connectionConfiguration = accounts.get(0).getConnectionConfiguration(hosts.get(0));
+            LOG.debug("Supported SASL authentications: {}", SASLAuthentication.getRegisterdSASLMechanisms());
+            LOG.debug("require_security: {}", requireSecurity);
+            LOG.debug("Security mode: {}", connectionConfiguration.getSecurityMode());
+            LOG.debug("Socket factory: {}", connectionConfiguration.getSocketFactory());
+            LOG.debug("Keystore: {}", connectionConfiguration.getKeystorePath());
+            LOG.debug("Keystore type: {}", connectionConfiguration.getKeystoreType());
+        }
+
+        final String configuredPriority = config.getString(CK_PRIORITY, JabberAlertPriority.URGENT.getName());
+        final JabberAlertPriority fixedPriority;
+        try {
+            fixedPriority = JabberAlertPriority.AUTO.equalsIgnoreCase(configuredPriority) ? null : JabberAlertPriority.fromName(configuredPriority);
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException(CK_PRIORITY + " must be one of auto, urgent or normal.");
+        }
+
+        final String urgentPatternString = config.getString(CK_URGENT_PATTERN);
+        final Pattern urgentPattern;
+        try {
+            urgentPattern = isNullOrEmpty(urgentPatternString) ? null : Pattern.compile(urgentPatternString);
+        } catch (PatternSyntaxException e) {
+            throw new ConfigurationException(CK_URGENT_PATTERN + " is not a valid regular expression: " + e.getDescription());
+        }
+
+        final JabberOverloadPolicy overloadPolicy;
+        try {
+            overloadPolicy = JabberOverloadPolicy.fromName(config.getString(CK_OVERLOAD_POLICY, JabberOverloadPolicy.COLLAPSE.getName()));
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException(CK_OVERLOAD_POLICY + " must be one of block, drop_oldest, drop_newest or collapse.");
+        }
+
+        final int queueCapacity = config.getInt(CK_QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY);
+        if (queueCapacity < 1) {
+            throw new ConfigurationException(CK_QUEUE_CAPACITY + " must be at least 1.");
+        }
+
+        final int blockTimeout = config.getInt(CK_BLOCK_TIMEOUT, DEFAULT_BLOCK_TIMEOUT);
+        if (blockTimeout < 0) {
+            throw new ConfigurationException(CK_BLOCK_TIMEOUT + " must not be negative.");
+        }
+
+        final String hostAddresses = Joiner.on(", ").join(hosts);
+        final List<Object> destinationKey = ImmutableList.of(hosts, serviceName, ImmutableMap.copyOf(credentials),
+                requireSecurity, acceptSelfSigned, escalationList);
+        final String accountsDescription = accounts.size() == 1 ?
+                config.getString(CK_USERNAME) : config.getString(CK_USERNAME) + " (+" + (accounts.size() - 1) + " accounts)";
+
+        return new JabberDeliveryPlan(
+                ImmutableList.copyOf(new JabberAccountRing(accounts).preferenceOrder(recipient.toString())),
+                escalationList,
+                String.format("%s (service name: %s)", hostAddresses, serviceName),
+                new JabberAlarmCallbackFormatter(),
+                fixedPriority,
+                urgentPattern,
+                new JabberQueueSettings(queueCapacity, overloadPolicy, blockTimeout),
+                destinationKey,
+                accountsDescription + "@" + serviceName + " -> " + recipient + " via " + hostAddresses);
+    }
+
+    /**
+     * Parses a comma separated list of hosts, each optionally with its own port.
+     */
+    private static List<JabberHost> parseHosts(final String hostnames, final int defaultPort) throws ConfigurationException {
+        final ImmutableList.Builder<JabberHost> hosts = ImmutableList.builder();
+        for (String host : Splitter.on(',').trimResults().omitEmptyStrings().split(Strings.nullToEmpty(hostnames))) {
+            final HostAndPort hostAndPort;
+            try {
+                hostAndPort = HostAndPort.fromString(host).withDefaultPort(defaultPort);
+            } catch (IllegalArgumentException e) {
+                throw new ConfigurationException(CK_HOSTNAME + " contains an invalid host: " + host);
+            }
+            hosts.add(new JabberHost(hostAndPort.getHost(), hostAndPort.getPort()));
+        }
+
+        final List<JabberHost> result = hosts.build();
+        if (result.isEmpty()) {
+            throw new ConfigurationException("Mandatory field " + CK_HOSTNAME + " is missing.");
+        }
+        return result;
+    }
+
+    /**
+     * Adds the accounts of the {@code username:password} lines to {@code credentials}, which already contains the
+     * primary account.
+     */
+    private static void parseAdditionalAccounts(final String additionalAccounts,
+                                                final Map<String, String> credentials) throws ConfigurationException {
+        if (isNullOrEmpty(additionalAccounts)) {
+            return;
+        }
+
+        for (String line : Splitter.on('\n').trimResults().omitEmptyStrings().split(additionalAccounts)) {
+            final int separator = line.indexOf(':');
+            if (separator < 1 || separator == line.length() - 1) {
+                throw new ConfigurationException(CK_ADDITIONAL_ACCOUNTS + " must contain one username:password pair per line.");
+            }
+            final String username = line.substring(0, separator);
+            if (credentials.putIfAbsent(username, line.substring(separator + 1)) != null) {
+                throw new ConfigurationException(CK_ADDITIONAL_ACCOUNTS + " contains duplicate account " + username + ".");
+            }
+        }
+    }
+
+    private static XMPPTCPConnectionConfiguration buildConnectionConfiguration(final JabberHost host,
+                                                                               final String serviceName,
+                                                                               final String username,
+                                                                               final String password,
+                                                                               final boolean acceptSelfSigned,
+                                                                               final XMPPTCPConnectionConfiguration.SecurityMode securityMode) throws ConfigurationException {
+        final XMPPTCPConnectionConfiguration.Builder configBuilder;
+        try {
+            configBuilder = XMPPTCPConnectionConfiguration.builder()
+                    .setHost(host.getHostname())
+                    .setPort(host.getPort())
+                    .setUsernameAndPassword(username, password)
+                    .setXmppDomain(serviceName)
+                    .setResource(Resourcepart.from("graylog"))
+                    // Sessions only become available once they route an escalation list, see JabberSession.
+                    .setSendPresence(false);
+        } catch (XmppStringprepException e) {
+            throw new ConfigurationException(CK_SERVICE_NAME + " is not a valid XMPP domain: " + e.getMessage());
+        }
+
+        if (acceptSelfSigned) {
+            try {
+                TLSUtils.acceptAllCertificates(configBuilder);
+            } catch (NoSuchAlgorithmException | KeyManagementException e) {
+                throw new ConfigurationException("Unable to accept self-signed certificates: " + e.getMessage());
+            }
+        }
+        configBuilder.setSecurityMode(securityMode);
+
+        return configBuilder.build();
+    }
+
+    public JabberAlertPriority priorityOf(final AlertCondition condition) {
+        return fixedPriority == null ? JabberAlertPriority.classify(urgentPattern, condition) : fixedPriority;
+    }
+
+    /**
+     * @return the sender accounts in the order they are used for the recipient: the account the recipient maps to
+     * on the {@link JabberAccountRing}, followed by its failover accounts
+     */
+    public List<JabberAccount> getAccounts() {
+        return accounts;
+    }
+
+    /**
+     * @return the configured recipient
+     */
+    public EntityBareJid getRecipient() {
+        return recipients.get(0);
+    }
+
+    /**
+     * @return the escalation list, starting with the configured recipient: alerts go to the first one who is online
+     */
+    public List<EntityBareJid> getRecipients() {
+        return recipients;
+    }
+
+    public String getServerDescription() {
+        return serverDescription;
+    }
+
+    public JabberAlarmCallbackFormatter getFormatter() {
+        return formatter;
+    }
+
+    public JabberQueueSettings getQueueSettings() {
+        return queueSettings;
+    }
+
+    /**
+     * Key identifying the server, account and recipient of this plan. Alerts with the same key share a delivery
+     * queue and can be coalesced into a single message.
+     */
+    public List<Object> getDestinationKey() {
+        return destinationKey;
+    }
+
+    /**
+     * @return human readable description of the destination, without credentials
+     */
+    public String getDestinationName() {
+        return destinationName;
+    }
+}
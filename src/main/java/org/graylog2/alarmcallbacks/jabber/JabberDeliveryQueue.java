@@ -0,0 +1,322 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import org.graylog2.plugin.alarms.callbacks.AlarmCallbackException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of normal alerts for a single destination.
+ * <p>
+ * If the queue is full, the {@link JabberOverloadPolicy} of the incoming alert decides whether the caller blocks
+ * or which alert is dropped. Dropped alerts are counted and reported to the recipient in a summary message once
+ * the queue has drained.
+ * <p>
+ * Alerts whose delivery failed are put back at the head of the queue and wait there for their retry, so they keep
+ * their order, count towards the capacity and are sent together with the alerts which arrived in the meantime.
+ */
+public class JabberDeliveryQueue {
+    static final int MAX_COLLAPSED_HEADLINES = 10;
+
+    public interface DropListener {
+        void dropped(JabberOverloadPolicy policy, JabberAlert alert);
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Deque<JabberAlert> pending = new ArrayDeque<>();
+    private final Map<String, Integer> collapsedHeadlines = new LinkedHashMap<>();
+    private final DropListener dropListener;
+
+    private boolean scheduled = false;
+    private long suppressed = 0L;
+    private long backoffUntilNanos = 0L;
+    private boolean backoff = false;
+
+    public JabberDeliveryQueue(final DropListener dropListener) {
+        this.dropListener = dropListener;
+    }
+
+    /**
+     * Adds an alert to the queue, applying its overload policy if the queue is full.
+     *
+     * @return {@code true} if the queue has to be scheduled for dispatching by the caller
+     * @throws AlarmCallbackException if the policy is {@link JabberOverloadPolicy#BLOCK} and the queue stayed full
+     *                                for the whole block timeout
+     */
+    public boolean offer(final JabberAlert alert) throws AlarmCallbackException {
+        final JabberQueueSettings settings = alert.getPlan().getQueueSettings();
+        lock.lock();
+        try {
+            if (pending.size() >= settings.getCapacity()) {
+                switch (settings.getOverloadPolicy()) {
+                    case BLOCK:
+                        awaitNotFull(alert);
+                        break;
+                    case DROP_OLDEST:
+                        suppress(JabberOverloadPolicy.DROP_OLDEST, pending.pollFirst());
+                        break;
+                    case DROP_NEWEST:
+                        suppress(JabberOverloadPolicy.DROP_NEWEST, alert);
+                        return false;
+                    case COLLAPSE:
+                        suppress(JabberOverloadPolicy.COLLAPSE, alert);
+                        collapse(alert);
+                        return false;
+                }
+            }
+
+            pending.addLast(alert);
+            if (!scheduled) {
+                scheduled = true;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void awaitNotFull(final JabberAlert alert) throws AlarmCallbackException {
+        final JabberQueueSettings settings = alert.getPlan().getQueueSettings();
+        long remaining = TimeUnit.MILLISECONDS.toNanos(settings.getBlockTimeoutMillis());
+        try {
+            while (pending.size() >= settings.getCapacity()) {
+                if (remaining <= 0L) {
+                    suppress(JabberOverloadPolicy.BLOCK, alert);
+                    throw new AlarmCallbackException("Jabber delivery queue is full, alert has been dropped after waiting "
+                            + settings.getBlockTimeoutMillis() + "ms");
+                }
+                remaining = notFull.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            suppress(JabberOverloadPolicy.BLOCK, alert);
+            throw new AlarmCallbackException("Interrupted while waiting for room in the Jabber delivery queue", e);
+        }
+    }
+
+    private void suppress(final JabberOverloadPolicy policy, final JabberAlert alert) {
+        suppressed++;
+        dropListener.dropped(policy, alert);
+    }
+
+    private void collapse(final JabberAlert alert) {
+        final String headline = alert.getSnapshot().getHeadline();
+        if (collapsedHeadlines.containsKey(headline) || collapsedHeadlines.size() < MAX_COLLAPSED_HEADLINES) {
+            collapsedHeadlines.merge(headline, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Puts alerts whose delivery failed back at the head of the queue, ahead of the alerts which have arrived since,
+     * and holds back the next flush until the backoff has passed.
+     * <p>
+     * Requeued alerts are always accepted, even if new alerts have filled the queue in the meantime. Until the queue
+     * is below its capacity again, the overload policy applies to new alerts.
+     *
+     * @return {@code true} if the queue has to be scheduled for dispatching by the caller
+     */
+    public boolean requeue(final List<JabberAlert> alerts, final long backoffMillis) {
+        lock.lock();
+        try {
+            for (int i = alerts.size() - 1; i >= 0; i--) {
+                pending.addFirst(alerts.get(i));
+            }
+            backoffUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMillis);
+            backoff = true;
+            if (!scheduled) {
+                scheduled = true;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the time in milliseconds until the queue may be flushed again after a failed delivery, or {@code 0}
+     */
+    public long getBackoffMillis() {
+        lock.lock();
+        try {
+            if (!backoff) {
+                return 0L;
+            }
+            final long remaining = TimeUnit.NANOSECONDS.toMillis(backoffUntilNanos - System.nanoTime());
+            if (remaining <= 0L) {
+                backoff = false;
+                return 0L;
+            }
+            return remaining;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes up to {@code maxAlerts} alerts from the queue.
+     */
+    public List<JabberAlert> drain(final int maxAlerts) {
+        lock.lock();
+        try {
+            final List<JabberAlert> alerts = new ArrayList<>(Math.min(maxAlerts, pending.size()));
+            while (alerts.size() < maxAlerts && !pending.isEmpty()) {
+                alerts.add(pending.pollFirst());
+            }
+            notFull.signalAll();
+            return alerts;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Finishes a flush of this queue. If the queue is empty, it is no longer scheduled and the next
+     * {@link #offer(JabberAlert)} will ask for scheduling again.
+     *
+     * @return {@code true} if alerts are still pending and the queue has to be flushed again by the caller
+     */
+    public boolean completeFlush() {
+        lock.lock();
+        try {
+            if (pending.isEmpty()) {
+                scheduled = false;
+                return false;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a summary of the alerts which have been suppressed since the last summary, if the queue has drained
+     * completely, and resets the suppression counters. If the summary cannot be delivered, it has to be
+     * {@link #restoreSuppressedSummary(SuppressedSummary) restored} by the caller.
+     *
+     * @return the summary or {@code null} if there is nothing to report or the queue is still under pressure
+     */
+    public SuppressedSummary pollSuppressedSummary() {
+        lock.lock();
+        try {
+            if (suppressed == 0L || !pending.isEmpty()) {
+                return null;
+            }
+
+            final SuppressedSummary summary = new SuppressedSummary(suppressed, new LinkedHashMap<>(collapsedHeadlines));
+            suppressed = 0L;
+            collapsedHeadlines.clear();
+            return summary;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds the counters of a summary which could not be delivered back to the ones suppressed since, so they are
+     * reported with the next summary.
+     */
+    public void restoreSuppressedSummary(final SuppressedSummary summary) {
+        lock.lock();
+        try {
+            suppressed += summary.suppressed;
+            for (Map.Entry<String, Integer> entry : summary.collapsedHeadlines.entrySet()) {
+                if (collapsedHeadlines.containsKey(entry.getKey()) || collapsedHeadlines.size() < MAX_COLLAPSED_HEADLINES) {
+                    collapsedHeadlines.merge(entry.getKey(), entry.getValue(), Integer::sum);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes an alert which has not been sent yet.
+     *
+     * @return {@code true} if the alert was still pending
+     */
+    public boolean remove(final JabberAlert alert) {
+        lock.lock();
+        try {
+            if (pending.remove(alert)) {
+                notFull.signalAll();
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return {@code true} if no alerts are pending and no flush is scheduled or running
+     */
+    public boolean isIdle() {
+        lock.lock();
+        try {
+            return pending.isEmpty() && !scheduled;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getSuppressed() {
+        lock.lock();
+        try {
+            return suppressed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Alerts suppressed by the overload policies since the previous summary.
+     */
+    public static final class SuppressedSummary {
+        private final long suppressed;
+        private final Map<String, Integer> collapsedHeadlines;
+
+        private SuppressedSummary(final long suppressed, final Map<String, Integer> collapsedHeadlines) {
+            this.suppressed = suppressed;
+            this.collapsedHeadlines = collapsedHeadlines;
+        }
+
+        public long getSuppressed() {
+            return suppressed;
+        }
+
+        /**
+         * @return the message reporting the suppressed alerts to the recipient
+         */
+        public String getMessage() {
+            final StringBuilder message = new StringBuilder()
+                    .append(suppressed)
+                    .append(" Graylog alert(s) suppressed because the Jabber delivery queue was full.");
+            for (Map.Entry<String, Integer> entry : collapsedHeadlines.entrySet()) {
+                message.append('\n')
+                        .append(entry.getValue())
+                        .append("x ")
+                        .append(entry.getKey());
+            }
+            return message.toString();
+        }
+    }
+}
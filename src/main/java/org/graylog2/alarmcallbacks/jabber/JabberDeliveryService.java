@@ -0,0 +1,602 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.InstrumentedExecutorService;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.graylog2.plugin.alarms.callbacks.AlarmCallbackException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Delivers alerts of all Jabber alarm callbacks of this node.
+ * <p>
+ * Urgent alerts bypass the queue and are sent straight away on the calling thread, so delivery failures are reported
+ * to Graylog. Normal alerts are only accepted if a session to their destination can be established.
+ * Normal alerts are put into a bounded {@link JabberDeliveryQueue} per destination. Once the flush interval of
+ * a queue has passed, the alerts pending in it are sent as one message by the sender executor. Flush interval and
+ * batch size are adapted to the observed latency by the {@link JabberBatchController} of the destination. Each queue is
+ * flushed by at most one task at a time, so alerts for the same destination are sent in order while different
+ * destinations are served concurrently.
+ * <p>
+ * Failed deliveries of queued alerts are attempted again according to the {@link JabberRetryPolicy}. The failed
+ * alerts are put back at the head of the queue of their destination, whose next flush is held back by the backoff.
+ * So retries keep the order of the alerts, are bounded by the queue capacity and neither the alarm callback nor the
+ * flushing thread waits for them. Failed urgent alerts are not retried, the failure reported to Graylog is final.
+ * <p>
+ * Graylog creates a new alarm callback for each alert, so destinations and sessions are looked up by the settings
+ * of the alert instead of being tied to a callback. A changed recipient or message setting leads to a new
+ * destination, while the sessions of the unchanged accounts are shared with the previous one. Destinations and
+ * sessions which have not been used for the idle timeout are closed.
+ * <p>
+ * On {@link #shutdown(long) shutdown} no new alerts are accepted and the queued ones are sent straight away,
+ * without waiting for their flush interval or retry backoff, and without further retries.
+ */
+@Singleton
+public class JabberDeliveryService {
+    private static final Logger LOG = LoggerFactory.getLogger(JabberDeliveryService.class);
+
+    static final String BATCH_SEPARATOR = "\n\n";
+    private static final long SHUTDOWN_POLL_INTERVAL_MILLIS = 50L;
+    private static final long IDLE_CHECK_INTERVAL_MILLIS = 60000L;
+
+    private final ConcurrentMap<List<Object>, JabberDestination> destinations = new ConcurrentHashMap<>();
+    private final Map<JabberAlertPriority, Timer> waitTimers = new EnumMap<>(JabberAlertPriority.class);
+    private final Map<JabberOverloadPolicy, Meter> dropMeters = new EnumMap<>(JabberOverloadPolicy.class);
+    private final Meter suppressedSummaries;
+    private final JabberMessageSender sender;
+    private final JabberBufferPool bufferPool = JabberBufferPool.shared();
+    private final JabberTraceRecorder traceRecorder;
+    private final JabberRetryPolicy retryPolicy;
+    private final Meter retries;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final ExecutorService senderExecutor;
+    private final JabberExecutorType senderExecutorType;
+    private final int senderThreads;
+    private final long batchTargetLatencyMillis;
+    private final long idleTimeoutMillis;
+    private final ScheduledFuture<?> idleCheck;
+    private final Counter runningSenders;
+    private final AtomicBoolean shuttingDown = new AtomicBoolean(false);
+    private final ReadWriteLock deliveries = new ReentrantReadWriteLock();
+
+    @Inject
+    public JabberDeliveryService(final MetricRegistry metricRegistry,
+                                 final JabberTraceRecorder traceRecorder,
+                                 final JabberRetryPolicy retryPolicy,
+                                 @Named(JabberPluginConfiguration.SENDER_EXECUTOR) final String senderExecutorType,
+                                 @Named(JabberPluginConfiguration.SENDER_THREADS) final int senderThreads,
+                                 @Named(JabberPluginConfiguration.BATCH_TARGET_LATENCY) final Duration batchTargetLatency,
+                                 @Named(JabberPluginConfiguration.IDLE_TIMEOUT) final Duration idleTimeout) {
+        this(metricRegistry, traceRecorder, retryPolicy, senderExecutorType, senderThreads, batchTargetLatency,
+                idleTimeout, new JabberMessageSender());
+    }
+
+    JabberDeliveryService(final MetricRegistry metricRegistry,
+                          final JabberTraceRecorder traceRecorder,
+                          final JabberRetryPolicy retryPolicy,
+                          final String senderExecutorType,
+                          final int senderThreads,
+                          final Duration batchTargetLatency,
+                          final Duration idleTimeout,
+                          final JabberMessageSender sender) {
+        for (JabberAlertPriority priority : JabberAlertPriority.values()) {
+            waitTimers.put(priority, metricRegistry.timer(name(JabberDeliveryService.class, priority.getName(), "wait-time")));
+        }
+        for (JabberOverloadPolicy policy : JabberOverloadPolicy.values()) {
+            dropMeters.put(policy, metricRegistry.meter(name(JabberDeliveryService.class, "dropped", policy.getName())));
+        }
+        this.suppressedSummaries = metricRegistry.meter(name(JabberDeliveryService.class, "suppressed-summaries"));
+        this.traceRecorder = traceRecorder;
+        this.retryPolicy = retryPolicy;
+        this.sender = sender;
+        this.retries = metricRegistry.meter(name(JabberDeliveryService.class, "retries"));
+
+        this.scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+                .setNameFormat("jabber-dispatcher-%d")
+                .setDaemon(true)
+                .build());
+        this.senderExecutorType = JabberExecutorType.fromName(senderExecutorType);
+        this.senderThreads = senderThreads;
+        this.batchTargetLatencyMillis = batchTargetLatency.toMilliseconds();
+        this.idleTimeoutMillis = idleTimeout.toMilliseconds();
+        this.senderExecutor = buildSenderExecutor(metricRegistry, this.senderExecutorType, senderThreads);
+        this.runningSenders = metricRegistry.counter(name(JabberDeliveryService.class, "sender-executor", "running"));
+
+        final long idleCheckIntervalMillis = Math.min(idleTimeoutMillis, IDLE_CHECK_INTERVAL_MILLIS);
+        this.idleCheck = scheduler.scheduleWithFixedDelay(this::closeIdle, idleCheckIntervalMillis, idleCheckIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static ExecutorService buildSenderExecutor(final MetricRegistry metricRegistry,
+                                                       final JabberExecutorType type,
+                                                       final int threads) {
+        final String metricName = name(JabberDeliveryService.class, "sender-executor");
+        final ExecutorService executor = new InstrumentedExecutorService(type.create(threads), metricRegistry, metricName);
+
+        if (type.isBounded()) {
+            final Counter running = metricRegistry.counter(name(metricName, "running"));
+            metricRegistry.register(name(metricName, "saturation"), (Gauge<Double>) () -> (double) running.getCount() / threads);
+        }
+        LOG.debug("Using {} sender executor with {} threads", type.getName(), threads);
+
+        return executor;
+    }
+
+    public void deliver(final JabberAlert alert) throws AlarmCallbackException {
+        // Shutdown waits for the deliveries holding the read lock before it flushes the queues.
+        deliveries.readLock().lock();
+        try {
+            if (shuttingDown.get()) {
+                throw new AlarmCallbackException("Jabber delivery service is shutting down, not accepting alerts");
+            }
+
+            final JabberDestination destination = destinationOf(alert.getPlan());
+
+            if (alert.getPriority() == JabberAlertPriority.URGENT) {
+                recordWaitTime(alert);
+                final List<JabberAlert> alerts = Collections.singletonList(alert);
+                final AlarmCallbackException failure = attempt(destination, alerts, render(alerts));
+                if (failure != null) {
+                    throw failure;
+                }
+            } else {
+                connect(destination, alert);
+                enqueue(destination, alert);
+            }
+        } finally {
+            deliveries.readLock().unlock();
+        }
+    }
+
+    private void enqueue(final JabberDestination destination, final JabberAlert alert) throws AlarmCallbackException {
+        final JabberDeliveryQueue queue = destination.getQueue();
+        if (queue.offer(alert)) {
+            // Give other alerts for the same destination a chance to arrive so they can be sent in one message.
+            scheduleFlush(destination, destination.getBatchController().getFlushIntervalMillis());
+        }
+
+        // Shutdown gave up waiting for this delivery, e.g. because it blocked on a full queue, and may already have
+        // failed the queued alerts. Don't leave the alert behind in a queue nobody flushes anymore.
+        if (senderExecutor.isShutdown() && queue.remove(alert)) {
+            final String failure = "Not delivered before shutdown";
+            destination.alertFailed(failure);
+            traceRecorder.complete(alert.getTrace(), failure);
+            throw new AlarmCallbackException("Jabber delivery service is shutting down, alert has not been delivered");
+        }
+    }
+
+    /**
+     * @return the destination of the plan, creating it if there is none or the previous one has just been retired
+     */
+    private JabberDestination destinationOf(final JabberDeliveryPlan plan) {
+        final List<Object> key = plan.getDestinationKey();
+        while (true) {
+            final JabberDestination destination = destinations.computeIfAbsent(key,
+                    k -> new JabberDestination(plan, this::dropped, new JabberBatchController(batchTargetLatencyMillis)));
+            if (destination.use()) {
+                destination.updatePlan(plan);
+                return destination;
+            }
+            destinations.remove(key, destination);
+        }
+    }
+
+    /**
+     * Fails a normal alert straight away if no session to the destination can be established, so an unreachable
+     * server or a rejected certificate or account is reported to Graylog instead of being hidden by the queue.
+     */
+    private void connect(final JabberDestination destination, final JabberAlert alert) throws AlarmCallbackException {
+        try {
+            sender.connect(destination);
+        } catch (AlarmCallbackException e) {
+            destination.alertFailed(e.getMessage());
+            traceRecorder.complete(alert.getTrace(), e);
+            throw e;
+        }
+    }
+
+    /**
+     * Stops accepting alerts and delivers the queued ones, including pending retries, within the given time.
+     * Deliveries which are already running, e.g. waiting for room in a full queue, are given the chance to queue
+     * their alerts first. Alerts which have not been delivered by then are failed. Finally, all sessions are closed.
+     *
+     * @return the number of alerts which could not be delivered
+     */
+    public int shutdown(final long timeoutMillis) {
+        if (!shuttingDown.compareAndSet(false, true)) {
+            return 0;
+        }
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        idleCheck.cancel(false);
+        try {
+            // Let deliveries which have already been accepted put their alerts into the queues first.
+            if (deliveries.writeLock().tryLock(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                deliveries.writeLock().unlock();
+            } else {
+                LOG.warn("Jabber alert deliveries still running after {}ms, shutting down anyway", timeoutMillis);
+            }
+
+            // Delayed flushes and retries are handed to the sender executor right away, later ones by scheduleFlush().
+            scheduler.shutdown();
+            for (Runnable pending : scheduler.getQueue().toArray(new Runnable[0])) {
+                if (scheduler.remove(pending)) {
+                    pending.run();
+                }
+            }
+            scheduler.shutdownNow();
+
+            while (!isIdle() && System.nanoTime() < deadline) {
+                Thread.sleep(SHUTDOWN_POLL_INTERVAL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        senderExecutor.shutdownNow();
+
+        int undelivered = 0;
+        for (JabberDestination destination : destinations.values()) {
+            for (JabberAlert alert : destination.getQueue().drain(Integer.MAX_VALUE)) {
+                destination.alertFailed("Not delivered before shutdown");
+                traceRecorder.complete(alert.getTrace(), "Not delivered before shutdown");
+                undelivered++;
+            }
+        }
+        if (undelivered > 0) {
+            LOG.warn("Unable to deliver {} queued Jabber alert(s) within {}ms before shutdown", undelivered, timeoutMillis);
+        }
+
+        sender.getSessionPool().closeAll();
+        return undelivered;
+    }
+
+    /**
+     * Removes the destinations which have not received alerts for the idle timeout, e.g. because the recipient of
+     * their alarm callback has been changed, and closes the sessions which none of the remaining destinations has
+     * used for that long.
+     */
+    private void closeIdle() {
+        try {
+            final long maxIdleNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+            for (Map.Entry<List<Object>, JabberDestination> entry : destinations.entrySet()) {
+                if (entry.getValue().retireIfIdle(maxIdleNanos) && destinations.remove(entry.getKey(), entry.getValue())) {
+                    LOG.debug("Removing Jabber destination {}, idle for more than {}ms", entry.getValue().getName(), idleTimeoutMillis);
+                }
+            }
+            // Disconnecting may wait for the server, don't hold up the delayed flushes of the scheduler meanwhile.
+            senderExecutor.execute(this::closeIdleSessions);
+        } catch (Exception e) {
+            LOG.warn("Unable to close idle Jabber destinations and sessions", e);
+        }
+    }
+
+    private void closeIdleSessions() {
+        try {
+            sender.getSessionPool().closeIdle(idleTimeoutMillis);
+        } catch (Exception e) {
+            LOG.warn("Unable to close idle Jabber sessions", e);
+        }
+    }
+
+    private boolean isIdle() {
+        for (JabberDestination destination : destinations.values()) {
+            if (destination.getQueue().size() > 0 || destination.getInFlight() > 0) {
+                return false;
+            }
+        }
+        return runningSenders.getCount() == 0L;
+    }
+
+    private void dropped(final JabberOverloadPolicy policy, final JabberAlert alert) {
+        dropMeters.get(policy).mark();
+        traceRecorder.complete(alert.getTrace(), "Dropped by overload policy " + policy.getName());
+    }
+
+    public int getQueueSize() {
+        int size = 0;
+        for (JabberDestination destination : destinations.values()) {
+            size += destination.getQueue().size();
+        }
+        return size;
+    }
+
+    public int getOpenSessions() {
+        return sender.getSessionPool().size();
+    }
+
+    /**
+     * Closes all open XMPP sessions. The next delivery to each destination opens a new session.
+     */
+    public void closeSessions() {
+        sender.getSessionPool().closeAll();
+    }
+
+    public Map<JabberHost, JabberHostSelector.HostHealth> getHostHealth() {
+        return sender.getSessionPool().getHostSelector().getHealth();
+    }
+
+    public Collection<JabberDestination> getDestinations() {
+        return Collections.unmodifiableCollection(destinations.values());
+    }
+
+    public JabberExecutorType getSenderExecutorType() {
+        return senderExecutorType;
+    }
+
+    public int getSenderThreads() {
+        return senderThreads;
+    }
+
+    /**
+     * @return number of flushes currently running on the sender executor
+     */
+    public long getRunningSenders() {
+        return runningSenders.getCount();
+    }
+
+    private void scheduleFlush(final JabberDestination destination, final long delayMillis) {
+        try {
+            scheduler.schedule(() -> executeFlush(destination), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down, flush straight away.
+            executeFlush(destination);
+        }
+    }
+
+    /**
+     * Hands a flush of the destination to the sender executor. Once that has been shut down, the queued alerts are
+     * left to {@link #shutdown(long)}, which fails them.
+     */
+    private void executeFlush(final JabberDestination destination) {
+        try {
+            senderExecutor.execute(() -> flush(destination));
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Not flushing Jabber delivery queue of {}, shut down", destination.getName());
+        }
+    }
+
+    private void flush(final JabberDestination destination) {
+        final JabberDeliveryQueue queue = destination.getQueue();
+        final long backoff = shuttingDown.get() ? 0L : queue.getBackoffMillis();
+        if (backoff > 0L) {
+            // The alerts at the head of the queue have just failed, give the server some time before the next attempt.
+            scheduleFlush(destination, backoff);
+            return;
+        }
+
+        try {
+            final List<JabberAlert> alerts = queue.drain(destination.getBatchController().getBatchSize());
+            if (!alerts.isEmpty()) {
+                sendCoalesced(destination, alerts);
+            }
+
+            final JabberDeliveryQueue.SuppressedSummary summary = queue.pollSuppressedSummary();
+            if (summary != null) {
+                sendSuppressedSummary(destination, summary);
+            }
+        } catch (Exception e) {
+            LOG.error("Unexpected error while flushing Jabber delivery queue", e);
+        } finally {
+            if (queue.completeFlush()) {
+                // The remaining alerts have already waited for a whole batch, don't delay them any further.
+                executeFlush(destination);
+            }
+        }
+    }
+
+    /**
+     * Sends the summary of the suppressed alerts. If that fails, the suppressed alerts are reported with the next
+     * summary of the destination instead.
+     */
+    private void sendSuppressedSummary(final JabberDestination destination, final JabberDeliveryQueue.SuppressedSummary summary) {
+        try {
+            sender.send(destination, summary.getMessage(), Collections.emptyList());
+            suppressedSummaries.mark();
+        } catch (AlarmCallbackException e) {
+            destination.getQueue().restoreSuppressedSummary(summary);
+            LOG.error("Unable to deliver summary of {} suppressed Jabber alert(s), reporting them with the next summary",
+                    summary.getSuppressed(), e);
+        }
+    }
+
+    /**
+     * Sends the alerts in as few messages as possible, splitting the batch where a message would exceed
+     * {@link JabberAlarmCallbackFormatter#MAX_MESSAGE_BYTES}.
+     */
+    private void sendCoalesced(final JabberDestination destination, final List<JabberAlert> alerts) {
+        for (JabberAlert alert : alerts) {
+            recordWaitTime(alert);
+        }
+
+        int from = 0;
+        while (from < alerts.size()) {
+            final StringBuilder buffer = bufferPool.acquire();
+            final int to;
+            final String body;
+            try {
+                to = renderBatch(alerts, from, buffer);
+                body = buffer.toString();
+            } finally {
+                bufferPool.release(buffer);
+            }
+
+            final List<JabberAlert> batch = alerts.subList(from, to);
+            final long sendStart = System.nanoTime();
+            if (attempt(destination, batch, body) == null) {
+                final long sent = System.nanoTime();
+                destination.getBatchController().batchSent(batch.size(), sent - batch.get(0).getCreatedAtNanos(), sent - sendStart);
+            }
+            from = to;
+        }
+    }
+
+    /**
+     * Renders the alerts starting at {@code from} one after the other into {@code buffer}, stopping before the first
+     * alert which would make the message exceed {@link JabberAlarmCallbackFormatter#MAX_MESSAGE_BYTES}. The first
+     * alert is always rendered, the formatter already keeps a single alert within the limit.
+     *
+     * @return the index of the first alert which has not been rendered
+     */
+    static int renderBatch(final List<JabberAlert> alerts, final int from, final StringBuilder buffer) {
+        long bytes = 0L;
+        int next = from;
+        while (next < alerts.size()) {
+            final int mark = buffer.length();
+            if (mark > 0) {
+                buffer.append(BATCH_SEPARATOR);
+            }
+            alerts.get(next).renderTo(buffer);
+
+            bytes += JabberAlarmCallbackFormatter.encodedLength(buffer, mark, buffer.length());
+            if (bytes > JabberAlarmCallbackFormatter.MAX_MESSAGE_BYTES && next > from) {
+                buffer.setLength(mark);
+                break;
+            }
+            next++;
+        }
+        return next;
+    }
+
+    /**
+     * Renders the alerts one after the other into a single pooled buffer.
+     */
+    private String render(final List<JabberAlert> alerts) {
+        final StringBuilder buffer = bufferPool.acquire();
+        try {
+            for (JabberAlert alert : alerts) {
+                if (buffer.length() > 0) {
+                    buffer.append(BATCH_SEPARATOR);
+                }
+                alert.renderTo(buffer);
+            }
+            return buffer.toString();
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Sends the alerts as one message. If that fails, the alerts which the retry policy allows another attempt are
+     * put back into the queue of the destination, the others are failed for good.
+     *
+     * @return the failure of this attempt or {@code null} if the alerts have been delivered
+     */
+    private AlarmCallbackException attempt(final JabberDestination destination,
+                                           final List<JabberAlert> alerts,
+                                           final String body) {
+        final List<JabberAlertTrace> traces = new ArrayList<>(alerts.size());
+        for (JabberAlert alert : alerts) {
+            alert.getTrace().attemptStarted();
+            traces.add(alert.getTrace());
+        }
+
+        AlarmCallbackException failure = null;
+        destination.sendStarted();
+        try {
+            try {
+                sender.send(destination, body, traces);
+            } catch (AlarmCallbackException e) {
+                failure = e;
+            }
+
+            if (failure == null) {
+                for (JabberAlert alert : alerts) {
+                    destination.alertDelivered(alert);
+                    traceRecorder.complete(alert.getTrace(), (String) null);
+                }
+            } else {
+                retryOrFail(destination, alerts, failure);
+            }
+        } finally {
+            // Only now, so the destination is not retired while its alerts are being put back into the queue.
+            destination.sendFinished();
+        }
+
+        return failure;
+    }
+
+    private void retryOrFail(final JabberDestination destination,
+                             final List<JabberAlert> alerts,
+                             final AlarmCallbackException failure) {
+        final List<JabberAlert> retry = new ArrayList<>(alerts.size());
+        final List<JabberAlertTrace> failed = new ArrayList<>();
+        int attempt = 0;
+        for (JabberAlert alert : alerts) {
+            final int attempts = alert.getTrace().getAttempts();
+            if (alert.getPriority() != JabberAlertPriority.URGENT && !shuttingDown.get() && retryPolicy.shouldRetry(attempts)) {
+                retry.add(alert);
+                attempt = Math.max(attempt, attempts);
+            } else {
+                destination.alertFailed(failure.getMessage());
+                traceRecorder.complete(alert.getTrace(), failure);
+                failed.add(alert.getTrace());
+            }
+        }
+
+        if (!failed.isEmpty()) {
+            LOG.error("Unable to deliver {} Jabber alert(s) {}, giving up", failed.size(), correlationIds(failed), failure);
+        }
+        if (!retry.isEmpty()) {
+            final long backoff = retryPolicy.backoffMillis(attempt);
+            LOG.warn("Unable to deliver {} Jabber alert(s) {} in attempt {} of {}, retrying in {}ms: {}",
+                    retry.size(), correlationIds(traces(retry)), attempt, retryPolicy.getMaxAttempts(), backoff, failure.getMessage());
+            final boolean schedule = destination.getQueue().requeue(retry, backoff);
+            // Counted once the alerts are back in the queue, so the statistics never show a retry which isn't queued.
+            retries.mark(retry.size());
+            destination.alertsRetried(retry.size());
+            if (schedule) {
+                scheduleFlush(destination, backoff);
+            }
+        }
+    }
+
+    private static List<JabberAlertTrace> traces(final List<JabberAlert> alerts) {
+        final List<JabberAlertTrace> traces = new ArrayList<>(alerts.size());
+        for (JabberAlert alert : alerts) {
+            traces.add(alert.getTrace());
+        }
+        return traces;
+    }
+
+    private static String correlationIds(final List<JabberAlertTrace> traces) {
+        final StringBuilder ids = new StringBuilder("[");
+        for (JabberAlertTrace trace : traces) {
+            if (ids.length() > 1) {
+                ids.append(", ");
+            }
+            ids.append(trace.getCorrelationId());
+        }
+        return ids.append(']').toString();
+    }
+
+    private void recordWaitTime(final JabberAlert alert) {
+        waitTimers.get(alert.getPriority()).update(System.nanoTime() - alert.getCreatedAtNanos(), TimeUnit.NANOSECONDS);
+        alert.getTrace().record(JabberAlertTrace.Span.QUEUE_WAIT, alert.getCreatedAtNanos());
+    }
+}
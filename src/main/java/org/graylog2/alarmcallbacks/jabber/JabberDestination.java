@@ -0,0 +1,190 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import com.codahale.metrics.Timer;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runtime state of a single destination (server, account and recipient): its delivery queue, batching and
+ * delivery statistics.
+ * <p>
+ * Destinations are created by the first alert for them and {@link #retireIfIdle(long) retired} once they have
+ * neither received nor held alerts for a while.
+ */
+public class JabberDestination {
+    private final JabberDeliveryQueue queue;
+    private final JabberBatchController batchController;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionFailures = new LongAdder();
+    private final LongAdder accountFailovers = new LongAdder();
+    private final LongAdder escalations = new LongAdder();
+    private final Timer deliveryLatency = new Timer();
+
+    private volatile JabberDeliveryPlan plan;
+    private volatile String lastFailure;
+    private volatile DateTime lastFailureAt;
+
+    private long lastUsedNanos = System.nanoTime();
+    private boolean retired = false;
+
+    public JabberDestination(final JabberDeliveryPlan plan,
+                             final JabberDeliveryQueue.DropListener dropListener,
+                             final JabberBatchController batchController) {
+        this.plan = plan;
+        this.queue = new JabberDeliveryQueue(dropListener);
+        this.batchController = batchController;
+    }
+
+    /**
+     * @return the plan of the most recent alert for this destination
+     */
+    public JabberDeliveryPlan getPlan() {
+        return plan;
+    }
+
+    public void updatePlan(final JabberDeliveryPlan plan) {
+        this.plan = plan;
+    }
+
+    /**
+     * Marks the destination as used, unless it has already been {@link #retireIfIdle(long) retired}.
+     *
+     * @return whether alerts may be delivered through this destination
+     */
+    synchronized boolean use() {
+        if (retired) {
+            return false;
+        }
+        lastUsedNanos = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * Retires the destination if it has not been used for {@code maxIdleNanos} and its queue is
+     * {@link JabberDeliveryQueue#isIdle() idle}. A retired destination is not {@link #use() used} anymore and has to be removed by the caller.
+     *
+     * @return whether the destination has been retired
+     */
+    synchronized boolean retireIfIdle(final long maxIdleNanos) {
+        if (!retired && System.nanoTime() - lastUsedNanos >= maxIdleNanos && queue.isIdle() && inFlight.get() == 0) {
+            retired = true;
+        }
+        return retired;
+    }
+
+    public JabberDeliveryQueue getQueue() {
+        return queue;
+    }
+
+    public JabberBatchController getBatchController() {
+        return batchController;
+    }
+
+    void sendStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    void sendFinished() {
+        inFlight.decrementAndGet();
+    }
+
+    void connectionOpened() {
+        connectionsOpened.increment();
+    }
+
+    void connectionFailed() {
+        connectionFailures.increment();
+    }
+
+    void acknowledged(final long ackNanos) {
+        batchController.acknowledged(ackNanos);
+    }
+
+    void accountFailedOver() {
+        accountFailovers.increment();
+    }
+
+    void escalated() {
+        escalations.increment();
+    }
+
+    void alertDelivered(final JabberAlert alert) {
+        delivered.increment();
+        deliveryLatency.update(System.nanoTime() - alert.getCreatedAtNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    void alertsRetried(final int count) {
+        retried.add(count);
+    }
+
+    void alertFailed(final String failure) {
+        failed.increment();
+        lastFailure = failure;
+        lastFailureAt = DateTime.now(DateTimeZone.UTC);
+    }
+
+    public String getName() {
+        return plan.getDestinationName();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * @return number of times an alert has been scheduled for another delivery attempt
+     */
+    public long getRetried() {
+        return retried.sum();
+    }
+
+    public long getConnectionsOpened() {
+        return connectionsOpened.sum();
+    }
+
+    public long getConnectionFailures() {
+        return connectionFailures.sum();
+    }
+
+    public long getAccountFailovers() {
+        return accountFailovers.sum();
+    }
+
+    /**
+     * @return number of messages sent to an escalation recipient because the recipient was offline
+     */
+    public long getEscalations() {
+        return escalations.sum();
+    }
+
+    /**
+     * @return latency from handing an alert to the delivery service until it has been sent, in nanoseconds
+     */
+    public Timer getDeliveryLatency() {
+        return deliveryLatency;
+    }
+
+    public String getLastFailure() {
+        return lastFailure;
+    }
+
+    public DateTime getLastFailureAt() {
+        return lastFailureAt;
+    }
+}
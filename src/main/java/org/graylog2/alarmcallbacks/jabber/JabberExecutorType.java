@@ -0,0 +1,92 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors which can run the send path of queued alerts.
+ */
+public enum JabberExecutorType {
+    /**
+     * A fixed number of platform threads.
+     */
+    FIXED,
+    /**
+     * A work-stealing pool with the configured parallelism.
+     */
+    WORK_STEALING,
+    /**
+     * One virtual thread per send, if the JVM supports virtual threads. Falls back to {@link #FIXED} otherwise.
+     */
+    VIRTUAL;
+
+    private static final Logger LOG = LoggerFactory.getLogger(JabberExecutorType.class);
+
+    public static JabberExecutorType fromName(final String name) {
+        return valueOf(name.toUpperCase(Locale.ENGLISH));
+    }
+
+    public static List<String> names() {
+        final List<String> names = new ArrayList<>();
+        for (JabberExecutorType type : values()) {
+            names.add(type.getName());
+        }
+        return names;
+    }
+
+    public String getName() {
+        return name().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * @return whether the executor has a fixed number of threads which can be saturated
+     */
+    public boolean isBounded() {
+        return this != VIRTUAL || !supportsVirtualThreads();
+    }
+
+    public ExecutorService create(final int threads) {
+        switch (this) {
+            case WORK_STEALING:
+                return Executors.newWorkStealingPool(threads);
+            case VIRTUAL:
+                final ExecutorService virtualExecutor = newVirtualThreadPerTaskExecutor();
+                if (virtualExecutor != null) {
+                    return virtualExecutor;
+                }
+                LOG.warn("Virtual threads are not supported by this JVM, using a fixed pool of {} threads instead.", threads);
+                return FIXED.create(threads);
+            case FIXED:
+            default:
+                return Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                        .setNameFormat("jabber-sender-%d")
+                        .setDaemon(true)
+                        .build());
+        }
+    }
+
+    private static boolean supportsVirtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        // Looked up reflectively because the plugin is built for Java 8.
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
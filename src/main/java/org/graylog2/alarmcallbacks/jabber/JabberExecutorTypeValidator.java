@@ -0,0 +1,22 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import com.github.joschi.jadconfig.ValidationException;
+import com.github.joschi.jadconfig.Validator;
+
+/**
+ * Checks that a configuration value names one of the {@link JabberExecutorType executor types}.
+ */
+public class JabberExecutorTypeValidator implements Validator<String> {
+    @Override
+    public void validate(final String name, final String value) throws ValidationException {
+        if (value == null) {
+            throw new ValidationException("Parameter " + name + " must be set");
+        }
+        try {
+            JabberExecutorType.fromName(value);
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException("Parameter " + name + " must be one of " + JabberExecutorType.names()
+                    + " (found " + value + ")");
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import java.util.Objects;
+
+/**
+ * Host name and port of one of the servers of an XMPP service.
+ */
+public class JabberHost {
+    private final String hostname;
+    private final int port;
+
+    public JabberHost(final String hostname, final int port) {
+        this.hostname = hostname;
+        this.port = port;
+    }
+
+    public String getHostname() {
+        return hostname;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getAddress() {
+        return hostname + ":" + port;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final JabberHost that = (JabberHost) o;
+        return port == that.port && Objects.equals(hostname, that.hostname);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(hostname, port);
+    }
+
+    @Override
+    public String toString() {
+        return getAddress();
+    }
+}
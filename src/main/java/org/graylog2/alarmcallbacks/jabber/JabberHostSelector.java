@@ -0,0 +1,122 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the connect latency and failure rate of every XMPP host this node connects to and decides in which
+ * order the hosts of a service are tried when a new session is opened.
+ * <p>
+ * Hosts which failed recently are tried last. The others are tried fastest first, with their latency weighted by
+ * their failure rate, so a host which is fast but fails often loses against a slightly slower, reliable one.
+ * Hosts without measurements are tried first in their configured order, so they get measured.
+ */
+public class JabberHostSelector {
+    static final long FAILURE_COOLDOWN_MILLIS = 30000L;
+
+    /**
+     * Weight of the most recent observation in the moving averages of latency and failure rate.
+     */
+    private static final double SMOOTHING = 0.3d;
+
+    /**
+     * Score of unavailable hosts, far above the score of any available host.
+     */
+    private static final double UNAVAILABLE_SCORE = 1e18d;
+
+    private final ConcurrentMap<JabberHost, HostHealth> health = new ConcurrentHashMap<>();
+
+    /**
+     * @return the hosts in the order they should be tried
+     */
+    public List<JabberHost> order(final List<JabberHost> hosts) {
+        if (hosts.size() == 1) {
+            return hosts;
+        }
+
+        final long now = System.nanoTime();
+        final Map<JabberHost, Double> scores = new HashMap<>();
+        for (JabberHost host : hosts) {
+            scores.put(host, healthOf(host).score(now));
+        }
+
+        final List<JabberHost> ordered = new ArrayList<>(hosts);
+        ordered.sort(Comparator.comparing(scores::get));
+        return ordered;
+    }
+
+    public void connected(final JabberHost host, final long connectNanos) {
+        healthOf(host).connected(connectNanos);
+    }
+
+    public void failed(final JabberHost host) {
+        healthOf(host).failed(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FAILURE_COOLDOWN_MILLIS));
+    }
+
+    public Map<JabberHost, HostHealth> getHealth() {
+        return Collections.unmodifiableMap(health);
+    }
+
+    private HostHealth healthOf(final JabberHost host) {
+        return health.computeIfAbsent(host, k -> new HostHealth());
+    }
+
+    public static class HostHealth {
+        private double latencyNanos = -1d;
+        private double failureRate = 0d;
+        private long unavailableUntilNanos;
+        private boolean unavailable = false;
+
+        synchronized void connected(final long connectNanos) {
+            latencyNanos = latencyNanos < 0d ? connectNanos : SMOOTHING * connectNanos + (1d - SMOOTHING) * latencyNanos;
+            failureRate = (1d - SMOOTHING) * failureRate;
+            unavailable = false;
+        }
+
+        synchronized void failed(final long unavailableUntilNanos) {
+            failureRate = SMOOTHING + (1d - SMOOTHING) * failureRate;
+            this.unavailableUntilNanos = unavailableUntilNanos;
+            unavailable = true;
+        }
+
+        /**
+         * @return score of the host, lower is better
+         */
+        synchronized double score(final long now) {
+            if (isUnavailable(now)) {
+                // Behind all available hosts, the one which becomes available again first in front.
+                return UNAVAILABLE_SCORE + (unavailableUntilNanos - now);
+            }
+            return Math.max(latencyNanos, 0d) / (1d - Math.min(failureRate, 0.9d));
+        }
+
+        private boolean isUnavailable(final long now) {
+            return unavailable && unavailableUntilNanos - now > 0L;
+        }
+
+        public synchronized boolean isAvailable() {
+            return !isUnavailable(System.nanoTime());
+        }
+
+        /**
+         * @return moving average of the connect latency in milliseconds or -1 if the host hasn't been connected yet
+         */
+        public synchronized double getConnectLatencyMillis() {
+            return latencyNanos < 0d ? -1d : latencyNanos / TimeUnit.MILLISECONDS.toNanos(1L);
+        }
+
+        /**
+         * @return moving average of the share of failed connection attempts
+         */
+        public synchronized double getFailureRate() {
+            return failureRate;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import com.google.common.collect.Sets;
+import org.graylog2.plugin.alarms.callbacks.AlarmCallbackException;
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.XMPPError;
+import org.jivesoftware.smack.sasl.SASLErrorException;
+import org.jivesoftware.smack.sm.StreamManagementException;
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
+import org.jxmpp.jid.EntityBareJid;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connects to the XMPP server of a {@link JabberDestination} and delivers message bodies to its recipient, failing
+ * over between the sender accounts of the destination.
+ * <p>
+ * An account is throttled, and only used if no other account is left, when the server rejects it or refuses its
+ * messages. As messages are not confirmed by the server, the latter is usually only noticed after the send has
+ * returned, by the {@link JabberSession.ErrorListener} of the session.
+ */
+public class JabberMessageSender implements JabberSession.ErrorListener {
+    private static final Logger LOG = LoggerFactory.getLogger(JabberMessageSender.class);
+
+    static final long ACCOUNT_BACKOFF_MILLIS = 60000L;
+
+    private static final Set<XMPPError.Condition> ACCOUNT_CONDITIONS = Sets.immutableEnumSet(
+            XMPPError.Condition.forbidden,
+            XMPPError.Condition.not_allowed,
+            XMPPError.Condition.not_authorized,
+            XMPPError.Condition.policy_violation,
+            XMPPError.Condition.registration_required,
+            XMPPError.Condition.resource_constraint);
+
+    /**
+     * Accounts which have recently been rejected or throttled by their server, with the {@link System#nanoTime()}
+     * until which they are only used if no other account is left.
+     */
+    private final ConcurrentMap<String, Long> throttledUntil = new ConcurrentHashMap<>();
+    private final JabberSessionPool sessionPool = new JabberSessionPool(this);
+
+    /**
+     * Sends a message and records the connection, send and acknowledgement spans in the given traces.
+     * <p>
+     * The message is sent from the first usable account of the destination. If the server rejects or throttles
+     * that account, the message fails over to the next one.
+     */
+    public void send(final JabberDestination destination,
+                     final String messageBody,
+                     final Collection<JabberAlertTrace> traces) throws AlarmCallbackException {
+        AccountRejectedException failure = null;
+        for (JabberAccount account : usableAccounts(destination.getPlan().getAccounts())) {
+            if (failure != null) {
+                LOG.warn("Failing over to Jabber account {}: {}", account, failure.getMessage());
+                destination.accountFailedOver();
+            }
+
+            try {
+                sendAs(destination, account, messageBody, traces);
+                throttledUntil.remove(account.getId());
+                return;
+            } catch (AccountRejectedException e) {
+                throttle(account);
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Makes sure a session to the server of the destination can be established, so alerts are only queued if they
+     * can be sent at all. Once the session is pooled, this is cheap.
+     */
+    public void connect(final JabberDestination destination) throws AlarmCallbackException {
+        AccountRejectedException failure = null;
+        for (JabberAccount account : usableAccounts(destination.getPlan().getAccounts())) {
+            try {
+                acquire(destination, account);
+                return;
+            } catch (AccountRejectedException e) {
+                throttle(account);
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    @Override
+    public void accountThrottled(final JabberSession session, final String condition) {
+        LOG.warn("XMPP server {} throttled Jabber account {} ({}), preferring other accounts for {}ms",
+                session.getHost(), session.getAccount(), condition, ACCOUNT_BACKOFF_MILLIS);
+        throttle(session.getAccount());
+        if (!session.isUsable()) {
+            sessionPool.invalidate(session);
+        }
+    }
+
+    @Override
+    public void sessionFailed(final JabberSession session, final Exception e) {
+        LOG.debug("XMPP server {} closed session of Jabber account {}", session.getHost(), session.getAccount(), e);
+        sessionPool.fail(session);
+    }
+
+    private void throttle(final JabberAccount account) {
+        throttledUntil.put(account.getId(), System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ACCOUNT_BACKOFF_MILLIS));
+    }
+
+    /**
+     * @return the accounts which have not been rejected recently in their preferred order, followed by the others
+     */
+    List<JabberAccount> usableAccounts(final List<JabberAccount> accounts) {
+        final List<JabberAccount> usable = new ArrayList<>(accounts.size());
+        final List<JabberAccount> throttled = new ArrayList<>();
+        final long now = System.nanoTime();
+        for (JabberAccount account : accounts) {
+            final Long until = throttledUntil.get(account.getId());
+            if (until == null || until - now <= 0L) {
+                usable.add(account);
+            } else {
+                throttled.add(account);
+            }
+        }
+        usable.addAll(throttled);
+        return usable;
+    }
+
+    private void sendAs(final JabberDestination destination,
+                        final JabberAccount account,
+                        final String messageBody,
+                        final Collection<JabberAlertTrace> traces) throws AlarmCallbackException {
+        final JabberDeliveryPlan plan = destination.getPlan();
+        final long connectStart = System.nanoTime();
+        final JabberSession session = acquire(destination, account);
+        JabberAlertTrace.record(traces, JabberAlertTrace.Span.CONNECTION_ACQUIRE, connectStart);
+
+        final XMPPTCPConnection connection = session.getConnection();
+        try {
+            final EntityBareJid recipient = session.selectRecipient(plan.getRecipients());
+            if (!recipient.equals(plan.getRecipient())) {
+                LOG.debug("{} is offline, escalating to {}", plan.getRecipient(), recipient);
+                destination.escalated();
+            }
+
+            final Message message = new Message(recipient, messageBody);
+            final CountDownLatch acknowledged = listenForAcknowledgement(connection, message);
+
+            final long sendStart = System.nanoTime();
+            connection.sendStanza(message);
+            JabberAlertTrace.record(traces, JabberAlertTrace.Span.SEND_STANZA, sendStart);
+
+            awaitAcknowledgement(destination, connection, message, acknowledged, traces);
+        } catch (Exception e) {
+            // Don't send further alerts over a session in an unknown state.
+            if (isAccountFailure(e)) {
+                sessionPool.invalidate(session);
+                throw new AccountRejectedException("XMPP server " + plan.getServerDescription() + " refused message from account " + account.getUsername(), e);
+            }
+            sessionPool.fail(session);
+            throw new AlarmCallbackException("Unable to send message", e);
+        }
+    }
+
+    private JabberSession acquire(final JabberDestination destination, final JabberAccount account) throws AlarmCallbackException {
+        try {
+            return sessionPool.acquire(account, destination);
+        } catch (Exception e) {
+            final String server = destination.getPlan().getServerDescription();
+            if (isAccountFailure(e)) {
+                throw new AccountRejectedException("XMPP server " + server + " rejected account " + account.getUsername(), e);
+            }
+            throw new AlarmCallbackException("Unable to connect to XMPP server " + server, e);
+        }
+    }
+
+    /**
+     * Failed authentication and stanza errors such as {@code resource-constraint} or {@code policy-violation}
+     * concern the account rather than the server, so another account may still succeed. Stream errors and all other
+     * failures are blamed on the host, so the next session is opened on another host.
+     */
+    static boolean isAccountFailure(final Exception e) {
+        if (e instanceof SASLErrorException) {
+            return true;
+        }
+        if (e instanceof XMPPException.XMPPErrorException) {
+            final XMPPError error = ((XMPPException.XMPPErrorException) e).getXMPPError();
+            return error != null && ACCOUNT_CONDITIONS.contains(error.getCondition());
+        }
+        return false;
+    }
+
+    private CountDownLatch listenForAcknowledgement(final XMPPTCPConnection connection, final Message message) {
+        if (!connection.isSmEnabled()) {
+            return null;
+        }
+
+        final CountDownLatch acknowledged = new CountDownLatch(1);
+        try {
+            connection.addStanzaIdAcknowledgedListener(message.getStanzaId(), stanza -> acknowledged.countDown());
+            return acknowledged;
+        } catch (StreamManagementException.StreamManagementNotEnabledException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Waits for the XEP-0198 acknowledgement of the message, if stream management is enabled, so the alert only
+     * counts as delivered once the server has it. A missing acknowledgement fails the send, as the message may never
+     * have reached the server.
+     */
+    private void awaitAcknowledgement(final JabberDestination destination,
+                                      final XMPPTCPConnection connection,
+                                      final Message message,
+                                      final CountDownLatch acknowledged,
+                                      final Collection<JabberAlertTrace> traces)
+            throws InterruptedException, SmackException.NotConnectedException, AlarmCallbackException {
+        if (acknowledged == null) {
+            return;
+        }
+
+        final long ackStart = System.nanoTime();
+        try {
+            connection.requestSmAcknowledgement();
+        } catch (StreamManagementException.StreamManagementNotEnabledException e) {
+            LOG.debug("Unable to request acknowledgement from XMPP server", e);
+            return;
+        }
+
+        if (acknowledged.await(connection.getReplyTimeout(), TimeUnit.MILLISECONDS)) {
+            destination.acknowledged(System.nanoTime() - ackStart);
+            JabberAlertTrace.record(traces, JabberAlertTrace.Span.SERVER_ACK, ackStart);
+        } else {
+            connection.removeStanzaIdAcknowledgedListener(message.getStanzaId());
+            throw new AlarmCallbackException("No acknowledgement from XMPP server within " + connection.getReplyTimeout() + "ms");
+        }
+    }
+
+    public JabberSessionPool getSessionPool() {
+        return sessionPool;
+    }
+
+    private static class AccountRejectedException extends AlarmCallbackException {
+        AccountRejectedException(final String message, final Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
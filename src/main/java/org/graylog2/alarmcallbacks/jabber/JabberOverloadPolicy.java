@@ -0,0 +1,33 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import java.util.Locale;
+
+/**
+ * What to do with a normal alert if the delivery queue of its destination is full.
+ */
+public enum JabberOverloadPolicy {
+    /**
+     * Block the calling thread until there is room in the queue or the block timeout expired.
+     */
+    BLOCK,
+    /**
+     * Drop the oldest pending alert to make room for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * Drop the new alert.
+     */
+    DROP_NEWEST,
+    /**
+     * Drop the new alert but keep its headline for the summary sent once the queue has drained.
+     */
+    COLLAPSE;
+
+    public static JabberOverloadPolicy fromName(final String name) {
+        return valueOf(name.toUpperCase(Locale.ENGLISH));
+    }
+
+    public String getName() {
+        return name().toLowerCase(Locale.ENGLISH);
+    }
+}
@@ -0,0 +1,95 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import com.github.joschi.jadconfig.Parameter;
+import com.github.joschi.jadconfig.util.Duration;
+import com.github.joschi.jadconfig.validators.PositiveDurationValidator;
+import com.github.joschi.jadconfig.validators.PositiveIntegerValidator;
+import org.graylog2.plugin.PluginConfigBean;
+
+/**
+ * Node-wide settings of the Jabber plugin which are read from the Graylog configuration file.
+ */
+public class JabberPluginConfiguration implements PluginConfigBean {
+    private static final String PREFIX = "jabber_";
+
+    public static final String SENDER_EXECUTOR = PREFIX + "sender_executor";
+    public static final String SENDER_THREADS = PREFIX + "sender_threads";
+    public static final String SLOW_TRACE_THRESHOLD = PREFIX + "slow_trace_threshold";
+    public static final String SLOW_TRACE_BUFFER_SIZE = PREFIX + "slow_trace_buffer_size";
+    public static final String BATCH_TARGET_LATENCY = PREFIX + "batch_target_latency";
+    public static final String RETRY_MAX_ATTEMPTS = PREFIX + "retry_max_attempts";
+    public static final String RETRY_INITIAL_BACKOFF = PREFIX + "retry_initial_backoff";
+    public static final String RETRY_MAX_BACKOFF = PREFIX + "retry_max_backoff";
+    public static final String SHUTDOWN_TIMEOUT = PREFIX + "shutdown_timeout";
+    public static final String IDLE_TIMEOUT = PREFIX + "idle_timeout";
+
+    @Parameter(value = SENDER_EXECUTOR, validator = JabberExecutorTypeValidator.class)
+    private String senderExecutor = JabberExecutorType.FIXED.getName();
+
+    @Parameter(value = SENDER_THREADS, validator = PositiveIntegerValidator.class)
+    private int senderThreads = 4;
+
+    @Parameter(value = SLOW_TRACE_THRESHOLD, validator = PositiveDurationValidator.class)
+    private Duration slowTraceThreshold = Duration.seconds(5L);
+
+    @Parameter(value = SLOW_TRACE_BUFFER_SIZE, validator = PositiveIntegerValidator.class)
+    private int slowTraceBufferSize = 100;
+
+    @Parameter(value = BATCH_TARGET_LATENCY, validator = PositiveDurationValidator.class)
+    private Duration batchTargetLatency = Duration.seconds(5L);
+
+    @Parameter(value = RETRY_MAX_ATTEMPTS, validator = PositiveIntegerValidator.class)
+    private int retryMaxAttempts = 3;
+
+    @Parameter(value = RETRY_INITIAL_BACKOFF, validator = PositiveDurationValidator.class)
+    private Duration retryInitialBackoff = Duration.seconds(1L);
+
+    @Parameter(value = RETRY_MAX_BACKOFF, validator = PositiveDurationValidator.class)
+    private Duration retryMaxBackoff = Duration.minutes(1L);
+
+    @Parameter(value = SHUTDOWN_TIMEOUT, validator = PositiveDurationValidator.class)
+    private Duration shutdownTimeout = Duration.seconds(10L);
+
+    @Parameter(value = IDLE_TIMEOUT, validator = PositiveDurationValidator.class)
+    private Duration idleTimeout = Duration.minutes(5L);
+
+    public String getSenderExecutor() {
+        return senderExecutor;
+    }
+
+    public int getSenderThreads() {
+        return senderThreads;
+    }
+
+    public Duration getSlowTraceThreshold() {
+        return slowTraceThreshold;
+    }
+
+    public int getSlowTraceBufferSize() {
+        return slowTraceBufferSize;
+    }
+
+    public Duration getBatchTargetLatency() {
+        return batchTargetLatency;
+    }
+
+    public int getRetryMaxAttempts() {
+        return retryMaxAttempts;
+    }
+
+    public Duration getRetryInitialBackoff() {
+        return retryInitialBackoff;
+    }
+
+    public Duration getRetryMaxBackoff() {
+        return retryMaxBackoff;
+    }
+
+    public Duration getShutdownTimeout() {
+        return shutdownTimeout;
+    }
+
+    public Duration getIdleTimeout() {
+        return idleTimeout;
+    }
+}
@@ -0,0 +1,28 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+/**
+ * Queueing limits of a Jabber alarm callback.
+ */
+public class JabberQueueSettings {
+    private final int capacity;
+    private final JabberOverloadPolicy overloadPolicy;
+    private final long blockTimeoutMillis;
+
+    public JabberQueueSettings(final int capacity, final JabberOverloadPolicy overloadPolicy, final long blockTimeoutMillis) {
+        this.capacity = capacity;
+        this.overloadPolicy = overloadPolicy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public JabberOverloadPolicy getOverloadPolicy() {
+        return overloadPolicy;
+    }
+
+    public long getBlockTimeoutMillis() {
+        return blockTimeoutMillis;
+    }
+}
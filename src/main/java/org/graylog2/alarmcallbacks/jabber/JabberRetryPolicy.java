@@ -0,0 +1,58 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import com.github.joschi.jadconfig.util.Duration;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether and when a failed delivery is attempted again.
+ * <p>
+ * The backoff doubles with every attempt up to a maximum. Only half of it is fixed, the other half is random, so
+ * alerts which failed at the same time because their server went away are spread out instead of all hitting the
+ * recovering server at the same instant.
+ */
+@Singleton
+public class JabberRetryPolicy {
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+
+    @Inject
+    public JabberRetryPolicy(@Named(JabberPluginConfiguration.RETRY_MAX_ATTEMPTS) final int maxAttempts,
+                             @Named(JabberPluginConfiguration.RETRY_INITIAL_BACKOFF) final Duration initialBackoff,
+                             @Named(JabberPluginConfiguration.RETRY_MAX_BACKOFF) final Duration maxBackoff) {
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoff.toMilliseconds();
+        this.maxBackoffMillis = Math.max(initialBackoffMillis, maxBackoff.toMilliseconds());
+    }
+
+    /**
+     * @param attempt the number of the attempt which has just failed, starting at 1
+     */
+    public boolean shouldRetry(final int attempt) {
+        return attempt < maxAttempts;
+    }
+
+    /**
+     * @param attempt the number of the attempt which has just failed, starting at 1
+     * @return the delay before the next attempt in milliseconds
+     */
+    public long backoffMillis(final int attempt) {
+        final long backoff = cappedBackoffMillis(attempt);
+        final long fixed = backoff / 2L;
+        return fixed + ThreadLocalRandom.current().nextLong(backoff - fixed + 1L);
+    }
+
+    long cappedBackoffMillis(final int attempt) {
+        // Stop shifting before the backoff could overflow, it has been capped long before that anyway.
+        final int exponent = Math.min(Math.max(attempt - 1, 0), 30);
+        return Math.min(maxBackoffMillis, initialBackoffMillis << exponent);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+}
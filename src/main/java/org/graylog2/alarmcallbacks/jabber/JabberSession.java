@@ -0,0 +1,226 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import org.jivesoftware.smack.AbstractConnectionListener;
+import org.jivesoftware.smack.StanzaListener;
+import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smack.filter.AndFilter;
+import org.jivesoftware.smack.filter.MessageTypeFilter;
+import org.jivesoftware.smack.filter.StanzaFilter;
+import org.jivesoftware.smack.filter.StanzaTypeFilter;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.packet.StreamError;
+import org.jivesoftware.smack.packet.XMPPError;
+import org.jivesoftware.smack.roster.Roster;
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
+import org.jxmpp.jid.BareJid;
+import org.jxmpp.jid.EntityBareJid;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * Long-lived, authenticated connection of a sender account, shared by all destinations using the account.
+ * <p>
+ * The roster of the session keeps the presence of the recipients it has subscribed to up to date, so alerts can
+ * be routed to the first recipient of an escalation list who is actually online. Sessions log in without presence
+ * and only become available once they route an escalation list, so sessions sending to a single recipient
+ * receive no presence traffic.
+ * <p>
+ * Messages are sent without waiting for a reply, so the server reports refused messages and closed streams
+ * asynchronously. These errors are passed on to the {@link ErrorListener} of the session.
+ */
+public class JabberSession {
+    private static final Logger LOG = LoggerFactory.getLogger(JabberSession.class);
+    private static final StanzaFilter ERROR_MESSAGES = new AndFilter(StanzaTypeFilter.MESSAGE, MessageTypeFilter.ERROR);
+
+    public interface ErrorListener {
+        /**
+         * The server refused a message of the session or closed its stream because the account exceeded a limit,
+         * e.g. with {@code resource-constraint} or {@code policy-violation}.
+         */
+        void accountThrottled(JabberSession session, String condition);
+
+        /**
+         * The server closed the stream of the session for another reason.
+         */
+        void sessionFailed(JabberSession session, Exception e);
+    }
+
+    private final JabberAccount account;
+    private final JabberHost host;
+    private final XMPPTCPConnection connection;
+    private final Roster roster;
+    private final Set<BareJid> watched = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean available = new AtomicBoolean(false);
+
+    private long lastUsedNanos = System.nanoTime();
+    private boolean retired = false;
+
+    JabberSession(final JabberAccount account, final JabberHost host, final XMPPTCPConnection connection) {
+        this.account = account;
+        this.host = host;
+        this.connection = connection;
+        this.roster = Roster.getInstanceFor(connection);
+    }
+
+    public static JabberSession open(final JabberAccount account,
+                                     final JabberHost host,
+                                     final ErrorListener errorListener) throws Exception {
+        final JabberSession session = new JabberSession(account, host,
+                new XMPPTCPConnection(account.getConnectionConfiguration(host)));
+        final ErrorHandler errorHandler = new ErrorHandler(session, errorListener);
+        session.connection.addAsyncStanzaListener(errorHandler, ERROR_MESSAGES);
+        session.connection.addConnectionListener(errorHandler);
+        try {
+            session.connection.connect();
+            session.connection.login();
+        } catch (Exception e) {
+            session.close();
+            throw e;
+        }
+        return session;
+    }
+
+    public JabberAccount getAccount() {
+        return account;
+    }
+
+    public JabberHost getHost() {
+        return host;
+    }
+
+    public XMPPTCPConnection getConnection() {
+        return connection;
+    }
+
+    public boolean isUsable() {
+        return connection.isConnected() && connection.isAuthenticated();
+    }
+
+    /**
+     * Marks the session as used, unless it has already been {@link #retireIfIdle(long) retired}.
+     *
+     * @return whether the session may be used
+     */
+    synchronized boolean use() {
+        if (retired) {
+            return false;
+        }
+        lastUsedNanos = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * Retires the session if it has not been used for {@code maxIdleNanos}. A retired session is not
+     * {@link #use() used} anymore and has to be closed by the caller.
+     *
+     * @return whether the session has been retired
+     */
+    synchronized boolean retireIfIdle(final long maxIdleNanos) {
+        if (!retired && System.nanoTime() - lastUsedNanos >= maxIdleNanos) {
+            retired = true;
+        }
+        return retired;
+    }
+
+    /**
+     * @return the first recipient who is available according to the presence cache of the roster, or the first
+     * recipient if none of them is
+     */
+    public EntityBareJid selectRecipient(final List<EntityBareJid> recipients) {
+        if (recipients.size() == 1) {
+            return recipients.get(0);
+        }
+
+        watch(recipients);
+        return firstAvailable(recipients, recipient -> roster.getPresence(recipient).isAvailable());
+    }
+
+    static EntityBareJid firstAvailable(final List<EntityBareJid> recipients, final Predicate<EntityBareJid> available) {
+        for (EntityBareJid recipient : recipients) {
+            if (available.test(recipient)) {
+                return recipient;
+            }
+        }
+        return recipients.get(0);
+    }
+
+    /**
+     * Subscribes to the presence of recipients which are not in the roster yet. The server only sends the presence
+     * of contacts to available sessions, so the session becomes available the first time.
+     */
+    private void watch(final List<EntityBareJid> recipients) {
+        if (available.compareAndSet(false, true)) {
+            try {
+                connection.sendStanza(new Presence(Presence.Type.available));
+            } catch (Exception e) {
+                available.set(false);
+                LOG.warn("Unable to send presence of account {}", account, e);
+            }
+        }
+
+        for (EntityBareJid recipient : recipients) {
+            if (!watched.add(recipient) || roster.contains(recipient)) {
+                continue;
+            }
+
+            try {
+                roster.createEntry(recipient, null, null);
+            } catch (Exception e) {
+                watched.remove(recipient);
+                LOG.warn("Unable to subscribe to presence of {} with account {}", recipient, account, e);
+            }
+        }
+    }
+
+    public void close() {
+        connection.disconnect();
+    }
+
+    static boolean isThrottling(final XMPPError.Condition condition) {
+        return condition == XMPPError.Condition.resource_constraint || condition == XMPPError.Condition.policy_violation;
+    }
+
+    static boolean isThrottling(final StreamError.Condition condition) {
+        return condition == StreamError.Condition.resource_constraint || condition == StreamError.Condition.policy_violation;
+    }
+
+    /**
+     * Tells throttling of the account apart from other errors reported by the server.
+     */
+    static class ErrorHandler extends AbstractConnectionListener implements StanzaListener {
+        private final JabberSession session;
+        private final ErrorListener errorListener;
+
+        ErrorHandler(final JabberSession session, final ErrorListener errorListener) {
+            this.session = session;
+            this.errorListener = errorListener;
+        }
+
+        @Override
+        public void processStanza(final Stanza stanza) {
+            final XMPPError error = stanza.getError();
+            if (error != null && isThrottling(error.getCondition())) {
+                errorListener.accountThrottled(session, error.getCondition().toString());
+            }
+        }
+
+        @Override
+        public void connectionClosedOnError(final Exception e) {
+            if (e instanceof XMPPException.StreamErrorException) {
+                final StreamError.Condition condition = ((XMPPException.StreamErrorException) e).getStreamError().getCondition();
+                if (isThrottling(condition)) {
+                    errorListener.accountThrottled(session, condition.toString());
+                    return;
+                }
+            }
+            errorListener.sessionFailed(session, e);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps one {@link JabberSession} per sender account open across alerts, so alerts don't pay for connecting and
+ * logging in and the presence of recipients is known before an alert has to be routed.
+ * <p>
+ * Broken sessions are replaced on the next use, and sessions which have not been used for a while are
+ * {@link #closeIdle(long) closed}. New sessions connect to the best host according to the
+ * {@link JabberHostSelector} and fail over to the next host straight away if that fails.
+ */
+public class JabberSessionPool {
+    private static final Logger LOG = LoggerFactory.getLogger(JabberSessionPool.class);
+
+    private final JabberHostSelector hostSelector = new JabberHostSelector();
+    private final ConcurrentMap<List<Object>, JabberSession> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<List<Object>, Object> locks = new ConcurrentHashMap<>();
+    private final JabberSession.ErrorListener errorListener;
+
+    public JabberSessionPool(final JabberSession.ErrorListener errorListener) {
+        this.errorListener = errorListener;
+    }
+
+    /**
+     * @return an open session of the account, logging in if there is none yet or the previous one has broken
+     */
+    public JabberSession acquire(final JabberAccount account, final JabberDestination destination) throws Exception {
+        final List<Object> key = account.getSessionKey();
+        final JabberSession session = sessions.get(key);
+        if (session != null && session.isUsable() && session.use()) {
+            return session;
+        }
+
+        synchronized (locks.computeIfAbsent(key, k -> new Object())) {
+            final JabberSession current = sessions.get(key);
+            if (current != null) {
+                if (current.isUsable() && current.use()) {
+                    return current;
+                }
+                invalidate(current);
+            }
+
+            final JabberSession opened = open(account, destination);
+            sessions.put(key, opened);
+            return opened;
+        }
+    }
+
+    private JabberSession open(final JabberAccount account, final JabberDestination destination) throws Exception {
+        Exception failure = null;
+        JabberHost failedHost = null;
+        for (JabberHost host : hostSelector.order(account.getHosts())) {
+            if (failure != null) {
+                LOG.warn("Unable to connect to XMPP server {}, failing over to {}: {}", failedHost, host, failure.getMessage());
+            }
+
+            final long connectStart = System.nanoTime();
+            try {
+                final JabberSession session = JabberSession.open(account, host, errorListener);
+                hostSelector.connected(host, System.nanoTime() - connectStart);
+                destination.connectionOpened();
+                return session;
+            } catch (Exception e) {
+                destination.connectionFailed();
+                if (JabberMessageSender.isAccountFailure(e)) {
+                    // The host is fine, but it won't accept the account. Neither will the other hosts of the service.
+                    throw e;
+                }
+                hostSelector.failed(host);
+                failure = e;
+                failedHost = host;
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Closes the session and removes it from the pool, unless it has already been replaced.
+     */
+    public void invalidate(final JabberSession session) {
+        sessions.remove(session.getAccount().getSessionKey(), session);
+        session.close();
+    }
+
+    /**
+     * Closes the session after a failure which may have been caused by its host, so the next session prefers
+     * another host.
+     */
+    public void fail(final JabberSession session) {
+        hostSelector.failed(session.getHost());
+        invalidate(session);
+    }
+
+    /**
+     * Closes the sessions which have not been used for longer than {@code maxIdleMillis}, so the pool doesn't keep
+     * connections open for alarm callbacks which rarely alert or don't exist anymore. Servers and NATs tend to drop
+     * such connections silently anyway.
+     *
+     * @return the number of closed sessions
+     */
+    public int closeIdle(final long maxIdleMillis) {
+        int closed = 0;
+        for (JabberSession session : sessions.values()) {
+            if (session.retireIfIdle(TimeUnit.MILLISECONDS.toNanos(maxIdleMillis))) {
+                LOG.debug("Closing session of Jabber account {}, idle for more than {}ms", session.getAccount(), maxIdleMillis);
+                invalidate(session);
+                closed++;
+            }
+        }
+        return closed;
+    }
+
+    /**
+     * Closes all sessions of the pool. New sessions are opened on demand.
+     */
+    public void closeAll() {
+        for (JabberSession session : sessions.values()) {
+            invalidate(session);
+        }
+    }
+
+    public JabberHostSelector getHostSelector() {
+        return hostSelector;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+}
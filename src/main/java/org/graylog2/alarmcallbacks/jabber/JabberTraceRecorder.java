@@ -0,0 +1,71 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import com.github.joschi.jadconfig.util.Duration;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the most recent slow or failed {@link JabberAlertTrace traces} in a ring buffer of fixed size, so outliers
+ * can be examined after the fact.
+ */
+@Singleton
+public class JabberTraceRecorder {
+    private final long slowThresholdNanos;
+    private final int capacity;
+    private final Deque<JabberAlertTrace> slowTraces;
+
+    @Inject
+    public JabberTraceRecorder(@Named(JabberPluginConfiguration.SLOW_TRACE_THRESHOLD) final Duration slowThreshold,
+                               @Named(JabberPluginConfiguration.SLOW_TRACE_BUFFER_SIZE) final int capacity) {
+        this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThreshold.toMilliseconds());
+        this.capacity = capacity;
+        this.slowTraces = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * Completes the trace and keeps it if it has been slow or failed.
+     *
+     * @param failure description of the failure or {@code null} if the alert has been delivered
+     */
+    public void complete(final JabberAlertTrace trace, final String failure) {
+        trace.complete(failure);
+        if (failure == null && trace.getTotalNanos() < slowThresholdNanos) {
+            return;
+        }
+
+        synchronized (slowTraces) {
+            if (slowTraces.size() >= capacity) {
+                slowTraces.pollFirst();
+            }
+            slowTraces.addLast(trace);
+        }
+    }
+
+    public void complete(final JabberAlertTrace trace, final Throwable failure) {
+        if (failure == null) {
+            complete(trace, (String) null);
+        } else if (failure.getCause() == null) {
+            complete(trace, failure.getMessage());
+        } else {
+            complete(trace, failure.getMessage() + ": " + failure.getCause().getMessage());
+        }
+    }
+
+    /**
+     * @return the recorded slow or failed traces, most recent first
+     */
+    public List<JabberAlertTrace> getSlowTraces() {
+        synchronized (slowTraces) {
+            final List<JabberAlertTrace> traces = new ArrayList<>(slowTraces.size());
+            slowTraces.descendingIterator().forEachRemaining(traces::add);
+            return traces;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.graylog2.alarmcallbacks.jabber.rest;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.joda.time.DateTime;
+
+public class JabberDestinationStatus {
+    @JsonProperty("name")
+    public final String name;
+
+    @JsonProperty("queue_size")
+    public final int queueSize;
+
+    @JsonProperty("queue_capacity")
+    public final int queueCapacity;
+
+    @JsonProperty("overload_policy")
+    public final String overloadPolicy;
+
+    @JsonProperty("batch_size")
+    public final int batchSize;
+
+    @JsonProperty("flush_interval_ms")
+    public final long flushIntervalMillis;
+
+    @JsonProperty("suppressed")
+    public final long suppressed;
+
+    @JsonProperty("in_flight")
+    public final int inFlight;
+
+    @JsonProperty("delivered")
+    public final long delivered;
+
+    @JsonProperty("failed")
+    public final long failed;
+
+    @JsonProperty("retried")
+    public final long retried;
+
+    @JsonProperty("connections_opened")
+    public final long connectionsOpened;
+
+    @JsonProperty("connection_failures")
+    public final long connectionFailures;
+
+    @JsonProperty("account_failovers")
+    public final long accountFailovers;
+
+    @JsonProperty("escalations")
+    public final long escalations;
+
+    @JsonProperty("last_failure")
+    public final String lastFailure;
+
+    @JsonProperty("last_failure_at")
+    public final DateTime lastFailureAt;
+
+    @JsonProperty("latency_p50_ms")
+    public final double latencyP50;
+
+    @JsonProperty("latency_p95_ms")
+    public final double latencyP95;
+
+    @JsonProperty("latency_p99_ms")
+    public final double latencyP99;
+
+    @JsonProperty("latency_max_ms")
+    public final double latencyMax;
+
+    public JabberDestinationStatus(final String name,
+                                   final int queueSize,
+                                   final int queueCapacity,
+                                   final String overloadPolicy,
+                                   final int batchSize,
+                                   final long flushIntervalMillis,
+                                   final long suppressed,
+                                   final int inFlight,
+                                   final long delivered,
+                                   final long failed,
+                                   final long retried,
+                                   final long connectionsOpened,
+                                   final long connectionFailures,
+                                   final long accountFailovers,
+                                   final long escalations,
+                                   final String lastFailure,
+                                   final DateTime lastFailureAt,
+                                   final double latencyP50,
+                                   final double latencyP95,
+                                   final double latencyP99,
+                                   final double latencyMax) {
+        this.name = name;
+        this.queueSize = queueSize;
+        this.queueCapacity = queueCapacity;
+        this.overloadPolicy = overloadPolicy;
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.suppressed = suppressed;
+        this.inFlight = inFlight;
+        this.delivered = delivered;
+        this.failed = failed;
+        this.retried = retried;
+        this.connectionsOpened = connectionsOpened;
+        this.connectionFailures = connectionFailures;
+        this.accountFailovers = accountFailovers;
+        this.escalations = escalations;
+        this.lastFailure = lastFailure;
+        this.lastFailureAt = lastFailureAt;
+        this.latencyP50 = latencyP50;
+        this.latencyP95 = latencyP95;
+        this.latencyP99 = latencyP99;
+        this.latencyMax = latencyMax;
+    }
+}
@@ -0,0 +1,27 @@
+package org.graylog2.alarmcallbacks.jabber.rest;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class JabberHostStatus {
+    @JsonProperty("address")
+    public final String address;
+
+    @JsonProperty("available")
+    public final boolean available;
+
+    @JsonProperty("connect_latency_ms")
+    public final double connectLatencyMillis;
+
+    @JsonProperty("failure_rate")
+    public final double failureRate;
+
+    public JabberHostStatus(final String address,
+                            final boolean available,
+                            final double connectLatencyMillis,
+                            final double failureRate) {
+        this.address = address;
+        this.available = available;
+        this.connectLatencyMillis = connectLatencyMillis;
+        this.failureRate = failureRate;
+    }
+}
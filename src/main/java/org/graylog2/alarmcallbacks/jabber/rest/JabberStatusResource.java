@@ -0,0 +1,126 @@
+package org.graylog2.alarmcallbacks.jabber.rest;
+
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.annotation.Timed;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import org.apache.shiro.authz.annotation.RequiresAuthentication;
+import org.graylog2.alarmcallbacks.jabber.JabberAlertTrace;
+import org.graylog2.alarmcallbacks.jabber.JabberDeliveryService;
+import org.graylog2.alarmcallbacks.jabber.JabberDestination;
+import org.graylog2.alarmcallbacks.jabber.JabberHost;
+import org.graylog2.alarmcallbacks.jabber.JabberHostSelector;
+import org.graylog2.alarmcallbacks.jabber.JabberQueueSettings;
+import org.graylog2.alarmcallbacks.jabber.JabberTraceRecorder;
+import org.graylog2.plugin.rest.PluginRestResource;
+import org.graylog2.shared.rest.resources.RestResource;
+import org.graylog2.shared.security.RestPermissions;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@RequiresAuthentication
+@Api(value = "Jabber", description = "Delivery status of the Jabber alarm callbacks of this node")
+@Path("/status")
+@Produces(MediaType.APPLICATION_JSON)
+public class JabberStatusResource extends RestResource implements PluginRestResource {
+    private final JabberDeliveryService deliveryService;
+    private final JabberTraceRecorder traceRecorder;
+
+    @Inject
+    public JabberStatusResource(final JabberDeliveryService deliveryService, final JabberTraceRecorder traceRecorder) {
+        this.deliveryService = deliveryService;
+        this.traceRecorder = traceRecorder;
+    }
+
+    @GET
+    @Timed
+    @ApiOperation(value = "Get queue depths, delivery counts and latencies of all Jabber destinations and hosts")
+    public JabberStatusResponse status() {
+        checkPermission(RestPermissions.SYSTEM_READ);
+
+        final List<JabberDestinationStatus> destinations = new ArrayList<>();
+        for (JabberDestination destination : deliveryService.getDestinations()) {
+            destinations.add(toStatus(destination));
+        }
+
+        final List<JabberHostStatus> hosts = new ArrayList<>();
+        for (Map.Entry<JabberHost, JabberHostSelector.HostHealth> host : deliveryService.getHostHealth().entrySet()) {
+            final JabberHostSelector.HostHealth health = host.getValue();
+            hosts.add(new JabberHostStatus(
+                    host.getKey().getAddress(),
+                    health.isAvailable(),
+                    health.getConnectLatencyMillis(),
+                    health.getFailureRate()));
+        }
+
+        return new JabberStatusResponse(
+                deliveryService.getSenderExecutorType().getName(),
+                deliveryService.getSenderThreads(),
+                deliveryService.getRunningSenders(),
+                deliveryService.getOpenSessions(),
+                deliveryService.getQueueSize(),
+                hosts,
+                destinations);
+    }
+
+    @GET
+    @Timed
+    @Path("/traces")
+    @ApiOperation(value = "Get the most recent slow or failed Jabber alert traces")
+    public List<JabberTraceSummary> slowTraces() {
+        checkPermission(RestPermissions.SYSTEM_READ);
+
+        final List<JabberTraceSummary> traces = new ArrayList<>();
+        for (JabberAlertTrace trace : traceRecorder.getSlowTraces()) {
+            traces.add(new JabberTraceSummary(
+                    trace.getCorrelationId(),
+                    trace.getStartedAt(),
+                    trace.getPriority() == null ? null : trace.getPriority().getName(),
+                    trace.getAttempts(),
+                    toMillis(trace.getTotalNanos()),
+                    trace.getSpanMillis(),
+                    trace.getFailure()));
+        }
+        return traces;
+    }
+
+    private static JabberDestinationStatus toStatus(final JabberDestination destination) {
+        final JabberQueueSettings settings = destination.getPlan().getQueueSettings();
+        final Snapshot latency = destination.getDeliveryLatency().getSnapshot();
+
+        return new JabberDestinationStatus(
+                destination.getName(),
+                destination.getQueue().size(),
+                settings.getCapacity(),
+                settings.getOverloadPolicy().getName(),
+                destination.getBatchController().getBatchSize(),
+                destination.getBatchController().getFlushIntervalMillis(),
+                destination.getQueue().getSuppressed(),
+                destination.getInFlight(),
+                destination.getDelivered(),
+                destination.getFailed(),
+                destination.getRetried(),
+                destination.getConnectionsOpened(),
+                destination.getConnectionFailures(),
+                destination.getAccountFailovers(),
+                destination.getEscalations(),
+                destination.getLastFailure(),
+                destination.getLastFailureAt(),
+                toMillis(latency.getMedian()),
+                toMillis(latency.get95thPercentile()),
+                toMillis(latency.get99thPercentile()),
+                toMillis(latency.getMax()));
+    }
+
+    private static double toMillis(final double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1L);
+    }
+}
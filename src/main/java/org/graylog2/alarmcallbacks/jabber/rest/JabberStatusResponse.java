@@ -0,0 +1,44 @@
+package org.graylog2.alarmcallbacks.jabber.rest;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+public class JabberStatusResponse {
+    @JsonProperty("sender_executor")
+    public final String senderExecutor;
+
+    @JsonProperty("sender_threads")
+    public final int senderThreads;
+
+    @JsonProperty("running_senders")
+    public final long runningSenders;
+
+    @JsonProperty("open_sessions")
+    public final int openSessions;
+
+    @JsonProperty("queue_size")
+    public final int queueSize;
+
+    @JsonProperty("hosts")
+    public final List<JabberHostStatus> hosts;
+
+    @JsonProperty("destinations")
+    public final List<JabberDestinationStatus> destinations;
+
+    public JabberStatusResponse(final String senderExecutor,
+                                final int senderThreads,
+                                final long runningSenders,
+                                final int openSessions,
+                                final int queueSize,
+                                final List<JabberHostStatus> hosts,
+                                final List<JabberDestinationStatus> destinations) {
+        this.senderExecutor = senderExecutor;
+        this.senderThreads = senderThreads;
+        this.runningSenders = runningSenders;
+        this.openSessions = openSessions;
+        this.queueSize = queueSize;
+        this.hosts = hosts;
+        this.destinations = destinations;
+    }
+}
@@ -0,0 +1,45 @@
+package org.graylog2.alarmcallbacks.jabber.rest;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.joda.time.DateTime;
+
+import java.util.Map;
+
+public class JabberTraceSummary {
+    @JsonProperty("correlation_id")
+    public final String correlationId;
+
+    @JsonProperty("started_at")
+    public final DateTime startedAt;
+
+    @JsonProperty("priority")
+    public final String priority;
+
+    @JsonProperty("attempts")
+    public final int attempts;
+
+    @JsonProperty("total_ms")
+    public final double totalMillis;
+
+    @JsonProperty("spans_ms")
+    public final Map<String, Double> spanMillis;
+
+    @JsonProperty("failure")
+    public final String failure;
+
+    public JabberTraceSummary(final String correlationId,
+                              final DateTime startedAt,
+                              final String priority,
+                              final int attempts,
+                              final double totalMillis,
+                              final Map<String, Double> spanMillis,
+                              final String failure) {
+        this.correlationId = correlationId;
+        this.startedAt = startedAt;
+        this.priority = priority;
+        this.attempts = attempts;
+        this.totalMillis = totalMillis;
+        this.spanMillis = spanMillis;
+        this.failure = failure;
+    }
+}
@@ -0,0 +1,68 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JabberAccountRingTest {
+    @Test
+    public void testPreferenceOrderContainsEveryAccountOnce() throws Exception {
+        final List<JabberAccount> accounts = accounts(3);
+
+        final List<JabberAccount> order = new JabberAccountRing(accounts).preferenceOrder("user@example.org");
+
+        assertThat(order).containsOnlyElementsOf(accounts).hasSize(3);
+    }
+
+    @Test
+    public void testRecipientsAreSpreadOverAccounts() throws Exception {
+        final JabberAccountRing ring = new JabberAccountRing(accounts(4));
+
+        final Map<String, Integer> recipientsPerAccount = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            recipientsPerAccount.merge(ring.preferenceOrder("user" + i + "@example.org").get(0).getUsername(), 1, Integer::sum);
+        }
+
+        assertThat(recipientsPerAccount).hasSize(4);
+        assertThat(recipientsPerAccount.values()).allMatch(count -> count > 100);
+    }
+
+    @Test
+    public void testRemovingAnAccountOnlyMovesItsRecipients() throws Exception {
+        final List<JabberAccount> accounts = accounts(4);
+        final JabberAccountRing ring = new JabberAccountRing(accounts);
+        final JabberAccountRing reduced = new JabberAccountRing(accounts.subList(0, 3));
+
+        for (int i = 0; i < 1000; i++) {
+            final String recipient = "user" + i + "@example.org";
+            final List<JabberAccount> order = ring.preferenceOrder(recipient);
+            if (order.get(0) != accounts.get(3)) {
+                assertThat(reduced.preferenceOrder(recipient).get(0)).isSameAs(order.get(0));
+            } else {
+                // The share of the removed account goes to its failover account.
+                assertThat(reduced.preferenceOrder(recipient).get(0)).isSameAs(order.get(1));
+            }
+        }
+    }
+
+    private static List<JabberAccount> accounts(final int count) throws Exception {
+        final List<JabberAccount> accounts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final XMPPTCPConnectionConfiguration configuration = XMPPTCPConnectionConfiguration.builder()
+                    .setUsernameAndPassword("sender" + i, "secret")
+                    .setXmppDomain("example.org")
+                    .build();
+            accounts.add(new JabberAccount("sender" + i, "example.org",
+                    Collections.singletonMap(new JabberHost("localhost", 5222), configuration),
+                    Collections.singletonList("sender" + i)));
+        }
+        return accounts;
+    }
+}
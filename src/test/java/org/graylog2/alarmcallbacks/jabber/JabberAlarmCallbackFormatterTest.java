@@ -105,4 +105,24 @@ public class JabberAlarmCallbackFormatterTest {
                         "Triggered condition: id:dummy={Dummy alert to test notifications}, stream:={Mock-Stream-toString}")
                 .endsWith("2018-02-27T17:00:00.000Z - message\n");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testRenderReusesPooledBuffer() {
+        final Stream mockStream = mock(Stream.class);
+        when(mockStream.getTitle()).thenReturn("Stream Title");
+        when(mockStream.getId()).thenReturn("001122334455667788");
+
+        final JabberBufferPool bufferPool = new JabberBufferPool(1);
+        final JabberAlarmCallbackFormatter formatter = new JabberAlarmCallbackFormatter(bufferPool);
+
+        final String first = formatter.render(mockStream, new AbstractAlertCondition.NegativeCheckResult());
+        assertThat(bufferPool.size()).isEqualTo(1);
+        final StringBuilder pooled = bufferPool.acquire();
+        assertThat(pooled.length()).isZero();
+        bufferPool.release(pooled);
+
+        final String second = formatter.render(mockStream, new AbstractAlertCondition.NegativeCheckResult());
+        assertThat(second).isEqualTo(first);
+        assertThat(bufferPool.acquire()).isSameAs(pooled);
+    }
+}
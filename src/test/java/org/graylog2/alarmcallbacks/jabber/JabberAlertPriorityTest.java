@@ -0,0 +1,58 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import org.graylog2.alerts.types.DummyAlertCondition;
+import org.graylog2.plugin.streams.Stream;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class JabberAlertPriorityTest {
+    private static final Pattern URGENT_PATTERN = Pattern.compile("(?i)critical|urgent");
+
+    @Test
+    public void testFromName() {
+        assertThat(JabberAlertPriority.fromName("urgent")).isEqualTo(JabberAlertPriority.URGENT);
+        assertThat(JabberAlertPriority.fromName("NORMAL")).isEqualTo(JabberAlertPriority.NORMAL);
+    }
+
+    @Test
+    public void testClassifyByConditionTitle() {
+        assertThat(JabberAlertPriority.classify(URGENT_PATTERN, condition("CRITICAL: production down")))
+                .isEqualTo(JabberAlertPriority.URGENT);
+        assertThat(JabberAlertPriority.classify(URGENT_PATTERN, condition("Disk usage above 80%")))
+                .isEqualTo(JabberAlertPriority.NORMAL);
+    }
+
+    @Test
+    public void testClassifyByConditionType() {
+        assertThat(JabberAlertPriority.classify(Pattern.compile("dummy"), condition("title")))
+                .isEqualTo(JabberAlertPriority.URGENT);
+    }
+
+    @Test
+    public void testClassifyWithoutConditionOrPattern() {
+        assertThat(JabberAlertPriority.classify(URGENT_PATTERN, null)).isEqualTo(JabberAlertPriority.NORMAL);
+        assertThat(JabberAlertPriority.classify(null, condition("critical"))).isEqualTo(JabberAlertPriority.NORMAL);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidName() {
+        JabberAlertPriority.fromName("whenever");
+    }
+
+    private DummyAlertCondition condition(String title) {
+        return new DummyAlertCondition(
+                mock(Stream.class),
+                "id",
+                DateTime.parse("2018-02-27T17:00:00.000Z"),
+                "admin",
+                Collections.emptyMap(),
+                title
+        );
+    }
+}
@@ -0,0 +1,66 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import com.google.common.base.Strings;
+import org.graylog2.alerts.AbstractAlertCondition;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageSummary;
+import org.graylog2.plugin.alarms.AlertCondition;
+import org.graylog2.plugin.streams.Stream;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class JabberAlertSnapshotTest {
+    @Test
+    public void testLongMessagesAreTruncated() {
+        final JabberAlertSnapshot snapshot = JabberAlertSnapshot.of(stream(), checkResult(1, Strings.repeat("x", 5000)));
+
+        assertThat(snapshot.getBacklog()).hasSize(1);
+        assertThat(snapshot.getBacklog().get(0))
+                .isEqualTo("2018-02-27T17:00:00.000Z - " + Strings.repeat("x", JabberAlertSnapshot.MAX_MESSAGE_LENGTH)
+                        + JabberAlertSnapshot.TRUNCATION_MARKER);
+        assertThat(snapshot.getOmittedBacklog()).isZero();
+    }
+
+    @Test
+    public void testBacklogIsBounded() {
+        final JabberAlertSnapshot snapshot = JabberAlertSnapshot.of(stream(),
+                checkResult(JabberAlertSnapshot.MAX_BACKLOG_LINES + 5, "message"));
+
+        assertThat(snapshot.getBacklog()).hasSize(JabberAlertSnapshot.MAX_BACKLOG_LINES);
+        assertThat(snapshot.getOmittedBacklog()).isEqualTo(5);
+        assertThat(new JabberAlarmCallbackFormatter().render(snapshot)).endsWith("(5 more messages)\n");
+    }
+
+    @Test
+    public void testSnapshotWithoutCondition() {
+        final JabberAlertSnapshot snapshot = JabberAlertSnapshot.of(stream(), new AbstractAlertCondition.NegativeCheckResult());
+
+        assertThat(snapshot.getStreamId()).isEqualTo("001122334455667788");
+        assertThat(snapshot.getConditionTitle()).isNull();
+        assertThat(snapshot.getBacklog()).isEmpty();
+        assertThat(snapshot.getHeadline()).isEqualTo("Graylog alert for stream <Stream Title>");
+    }
+
+    private Stream stream() {
+        final Stream stream = mock(Stream.class);
+        when(stream.getTitle()).thenReturn("Stream Title");
+        when(stream.getId()).thenReturn("001122334455667788");
+        return stream;
+    }
+
+    private AlertCondition.CheckResult checkResult(int messages, String message) {
+        final List<MessageSummary> summaries = new ArrayList<>();
+        for (int i = 0; i < messages; i++) {
+            summaries.add(new MessageSummary("graylog_0", new Message(message, "source", DateTime.parse("2018-02-27T17:00:00.000Z"))));
+        }
+        return new AbstractAlertCondition.CheckResult(true, null, "result-description",
+                DateTime.parse("2018-02-27T17:00:00.000Z"), summaries);
+    }
+}
@@ -0,0 +1,69 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JabberBatchControllerTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(100L);
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(10L);
+
+    private final JabberBatchController controller = new JabberBatchController(5000L);
+
+    @Test
+    public void testSingleAlertsShrinkFlushInterval() {
+        controller.batchSent(1, FAST, FAST);
+
+        assertThat(controller.getFlushIntervalMillis()).isEqualTo(JabberBatchController.INITIAL_FLUSH_INTERVAL_MILLIS / 2L);
+        assertThat(controller.getBatchSize()).isEqualTo(JabberBatchController.INITIAL_BATCH_SIZE);
+
+        for (int i = 0; i < 20; i++) {
+            controller.batchSent(1, FAST, FAST);
+        }
+        assertThat(controller.getFlushIntervalMillis()).isEqualTo(JabberBatchController.MIN_FLUSH_INTERVAL_MILLIS);
+    }
+
+    @Test
+    public void testFullBatchesGrowBatchSize() {
+        for (int i = 0; i < 100; i++) {
+            controller.batchSent(controller.getBatchSize(), FAST, FAST);
+        }
+
+        assertThat(controller.getBatchSize()).isEqualTo(JabberBatchController.MAX_BATCH_SIZE);
+    }
+
+    @Test
+    public void testPartialBatchesGrowFlushIntervalWithinTarget() {
+        for (int i = 0; i < 100; i++) {
+            controller.batchSent(10, FAST, FAST);
+        }
+
+        // Half of the target which is not used by sending.
+        assertThat(controller.getFlushIntervalMillis()).isEqualTo(2450L);
+    }
+
+    @Test
+    public void testMissedTargetShrinksFlushInterval() {
+        controller.batchSent(10, SLOW, FAST);
+
+        assertThat(controller.getFlushIntervalMillis()).isEqualTo(JabberBatchController.INITIAL_FLUSH_INTERVAL_MILLIS / 2L);
+        assertThat(controller.getBatchSize()).isEqualTo(JabberBatchController.INITIAL_BATCH_SIZE);
+    }
+
+    @Test
+    public void testSlowSendsShrinkBatchSize() {
+        controller.batchSent(10, SLOW, SLOW);
+
+        assertThat(controller.getBatchSize()).isEqualTo(JabberBatchController.INITIAL_BATCH_SIZE / 2);
+    }
+
+    @Test
+    public void testSlowAcknowledgementsShrinkBatchSize() {
+        controller.acknowledged(TimeUnit.SECONDS.toNanos(2L));
+        controller.batchSent(10, SLOW, FAST);
+
+        assertThat(controller.getBatchSize()).isEqualTo(JabberBatchController.INITIAL_BATCH_SIZE / 2);
+    }
+}
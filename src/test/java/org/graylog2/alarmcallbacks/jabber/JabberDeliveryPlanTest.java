@@ -0,0 +1,203 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import org.graylog2.alerts.types.DummyAlertCondition;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.configuration.ConfigurationException;
+import org.graylog2.plugin.streams.Stream;
+import org.jivesoftware.smack.ConnectionConfiguration;
+import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+public class JabberDeliveryPlanTest {
+    private Map<String, Object> configSource;
+
+    @Before
+    public void setUp() {
+        configSource = JabberTestFixtures.configSource();
+        configSource.put("hostname", "xmpp.example.org");
+        configSource.put("require_security", true);
+        configSource.put("accept_selfsigned", false);
+    }
+
+    @Test
+    public void testCompile() throws Exception {
+        configSource.put("service_name", "example.org");
+
+        final JabberDeliveryPlan plan = JabberDeliveryPlan.compile(new Configuration(configSource));
+
+        assertThat(plan.getRecipient().toString()).isEqualTo("user2@example.org");
+        assertThat(connectionConfiguration(plan).getXMPPServiceDomain().toString()).isEqualTo("example.org");
+        assertThat(connectionConfiguration(plan).getSecurityMode()).isEqualTo(ConnectionConfiguration.SecurityMode.required);
+        assertThat(plan.getServerDescription()).isEqualTo("xmpp.example.org:5222 (service name: example.org)");
+        assertThat(plan.getQueueSettings().getCapacity()).isEqualTo(JabberAlarmCallback.DEFAULT_QUEUE_CAPACITY);
+        assertThat(plan.getQueueSettings().getOverloadPolicy()).isEqualTo(JabberOverloadPolicy.COLLAPSE);
+    }
+
+    @Test
+    public void testServiceNameFallsBackToHostname() throws Exception {
+        final JabberDeliveryPlan plan = JabberDeliveryPlan.compile(new Configuration(configSource));
+
+        assertThat(connectionConfiguration(plan).getXMPPServiceDomain().toString()).isEqualTo("xmpp.example.org");
+    }
+
+    @Test
+    public void testInvalidRecipientIsRejected() {
+        configSource.put("recipient", "@example.org");
+
+        try {
+            JabberDeliveryPlan.compile(new Configuration(configSource));
+            fail("Expected ConfigurationException to be thrown.");
+        } catch (ConfigurationException e) {
+            assertThat(e).hasMessageStartingWith("recipient is not a valid JID");
+        }
+    }
+
+    @Test
+    public void testAdditionalAccounts() throws Exception {
+        configSource.put("additional_accounts", "user3:secret\n\n  user4:pass:word  \n");
+
+        final JabberDeliveryPlan plan = JabberDeliveryPlan.compile(new Configuration(configSource));
+
+        assertThat(plan.getAccounts()).extracting(JabberAccount::getUsername).containsOnly("user1", "user3", "user4");
+        assertThat(plan.getDestinationName()).isEqualTo("user1 (+2 accounts)@xmpp.example.org -> user2@example.org via xmpp.example.org:5222");
+    }
+
+    @Test
+    public void testInvalidAdditionalAccountsAreRejected() {
+        configSource.put("additional_accounts", "user3");
+
+        try {
+            JabberDeliveryPlan.compile(new Configuration(configSource));
+            fail("Expected ConfigurationException to be thrown.");
+        } catch (ConfigurationException e) {
+            assertThat(e).hasMessageStartingWith("additional_accounts must contain one username:password pair per line");
+        }
+    }
+
+    @Test
+    public void testDuplicateAdditionalAccountsAreRejected() {
+        for (String additionalAccounts : new String[]{"user3:secret\nuser3:other", "user1:other"}) {
+            configSource.put("additional_accounts", additionalAccounts);
+
+            try {
+                JabberDeliveryPlan.compile(new Configuration(configSource));
+                fail("Expected ConfigurationException to be thrown.");
+            } catch (ConfigurationException e) {
+                assertThat(e).hasMessageStartingWith("additional_accounts contains duplicate account");
+            }
+        }
+    }
+
+    @Test
+    public void testEscalationRecipients() throws Exception {
+        configSource.put("escalation_recipients", "backup@example.org, lead@example.org");
+
+        final JabberDeliveryPlan plan = JabberDeliveryPlan.compile(new Configuration(configSource));
+
+        assertThat(plan.getRecipient().toString()).isEqualTo("user2@example.org");
+        assertThat(plan.getRecipients()).extracting(Object::toString)
+                .containsExactly("user2@example.org", "backup@example.org", "lead@example.org");
+        // Sessions become available once they route the escalation list.
+        assertThat(connectionConfiguration(plan).isSendPresence()).isFalse();
+    }
+
+    @Test
+    public void testMultipleHosts() throws Exception {
+        configSource.put("hostname", "xmpp1.example.org, xmpp2.example.org:5223");
+        configSource.put("service_name", "example.org");
+
+        final JabberDeliveryPlan plan = JabberDeliveryPlan.compile(new Configuration(configSource));
+
+        assertThat(plan.getAccounts().get(0).getHosts()).containsExactly(
+                new JabberHost("xmpp1.example.org", 5222),
+                new JabberHost("xmpp2.example.org", 5223));
+        assertThat(plan.getServerDescription()).isEqualTo("xmpp1.example.org:5222, xmpp2.example.org:5223 (service name: example.org)");
+    }
+
+    @Test
+    public void testServiceNameFallsBackToFirstHostname() throws Exception {
+        configSource.put("hostname", "xmpp1.example.org,xmpp2.example.org");
+
+        final JabberDeliveryPlan plan = JabberDeliveryPlan.compile(new Configuration(configSource));
+
+        assertThat(connectionConfiguration(plan).getXMPPServiceDomain().toString()).isEqualTo("xmpp1.example.org");
+    }
+
+    @Test
+    public void testInvalidOverloadPolicyIsRejected() {
+        configSource.put("overload_policy", "panic");
+
+        try {
+            JabberDeliveryPlan.compile(new Configuration(configSource));
+            fail("Expected ConfigurationException to be thrown.");
+        } catch (ConfigurationException e) {
+            assertThat(e).hasMessageStartingWith("overload_policy must be one of");
+        }
+    }
+
+    @Test
+    public void testPriority() throws Exception {
+        final DummyAlertCondition condition = new DummyAlertCondition(mock(Stream.class), "id",
+                DateTime.parse("2018-02-27T17:00:00.000Z"), "admin", Collections.emptyMap(), "Critical: disk full");
+        configSource.put("urgent_pattern", "(?i)critical");
+
+        assertThat(JabberDeliveryPlan.compile(new Configuration(configSource)).priorityOf(condition))
+                .isEqualTo(JabberAlertPriority.URGENT);
+
+        configSource.put("priority", "normal");
+        assertThat(JabberDeliveryPlan.compile(new Configuration(configSource)).priorityOf(condition))
+                .isEqualTo(JabberAlertPriority.NORMAL);
+    }
+
+    @Test
+    public void testMessageSettingChangesKeepSessions() throws Exception {
+        final JabberDeliveryPlan previous = JabberDeliveryPlan.compile(new Configuration(configSource));
+        configSource.put("recipient", "user3@example.org");
+        configSource.put("escalation_recipients", "backup@example.org");
+        configSource.put("priority", "urgent");
+        configSource.put("queue_capacity", 10);
+
+        final JabberDeliveryPlan plan = JabberDeliveryPlan.compile(new Configuration(configSource));
+
+        assertThat(plan.getDestinationKey()).isNotEqualTo(previous.getDestinationKey());
+        assertThat(plan.getAccounts().get(0).getSessionKey()).isEqualTo(previous.getAccounts().get(0).getSessionKey());
+    }
+
+    @Test
+    public void testConnectionSettingChangesRequireNewSession() throws Exception {
+        final List<Object> previous = sessionKey(configSource);
+
+        configSource.put("password", "changed");
+        assertThat(sessionKey(configSource)).isNotEqualTo(previous);
+
+        configSource.put("password", "test1234");
+        configSource.put("hostname", "xmpp2.example.org");
+        assertThat(sessionKey(configSource)).isNotEqualTo(previous);
+
+        configSource.put("hostname", "xmpp.example.org");
+        configSource.put("require_security", false);
+        assertThat(sessionKey(configSource)).isNotEqualTo(previous);
+
+        configSource.put("require_security", true);
+        assertThat(sessionKey(configSource)).isEqualTo(previous);
+    }
+
+    private static List<Object> sessionKey(final Map<String, Object> configSource) throws Exception {
+        return JabberDeliveryPlan.compile(new Configuration(configSource)).getAccounts().get(0).getSessionKey();
+    }
+
+    private static XMPPTCPConnectionConfiguration connectionConfiguration(final JabberDeliveryPlan plan) {
+        final JabberAccount account = plan.getAccounts().get(0);
+        return account.getConnectionConfiguration(account.getHosts().get(0));
+    }
+}
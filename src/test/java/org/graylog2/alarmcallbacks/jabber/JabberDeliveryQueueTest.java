@@ -0,0 +1,146 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import org.graylog2.plugin.alarms.callbacks.AlarmCallbackException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class JabberDeliveryQueueTest {
+    private final List<JabberOverloadPolicy> drops = new ArrayList<>();
+    private final JabberDeliveryQueue queue = new JabberDeliveryQueue((policy, alert) -> drops.add(policy));
+
+    @Test
+    public void testOfferSchedulesOnlyOnce() throws Exception {
+        assertThat(queue.offer(alert("alert 1", JabberOverloadPolicy.DROP_NEWEST))).isTrue();
+        assertThat(queue.offer(alert("alert 2", JabberOverloadPolicy.DROP_NEWEST))).isFalse();
+
+        assertThat(queue.drain(1)).extracting(alert -> alert.getSnapshot().getStreamTitle()).containsExactly("alert 1");
+        assertThat(queue.completeFlush()).isTrue();
+        assertThat(queue.offer(alert("alert 3", JabberOverloadPolicy.DROP_NEWEST))).isFalse();
+
+        assertThat(queue.drain(10)).extracting(alert -> alert.getSnapshot().getStreamTitle()).containsExactly("alert 2", "alert 3");
+        assertThat(queue.completeFlush()).isFalse();
+        assertThat(queue.offer(alert("alert 4", JabberOverloadPolicy.DROP_NEWEST))).isTrue();
+    }
+
+    @Test
+    public void testRequeuePutsAlertsBackAtTheHead() throws Exception {
+        queue.offer(alert("alert 1", JabberOverloadPolicy.DROP_NEWEST));
+        queue.offer(alert("alert 2", JabberOverloadPolicy.DROP_NEWEST));
+        final List<JabberAlert> failed = queue.drain(10);
+        queue.offer(alert("alert 3", JabberOverloadPolicy.DROP_NEWEST));
+
+        assertThat(queue.requeue(failed, 60000L)).isFalse();
+        assertThat(queue.getBackoffMillis()).isPositive();
+
+        // Requeued alerts count towards the capacity.
+        queue.offer(alert("alert 4", JabberOverloadPolicy.DROP_NEWEST));
+        assertThat(drops).containsExactly(JabberOverloadPolicy.DROP_NEWEST);
+        assertThat(queue.drain(10)).extracting(alert -> alert.getSnapshot().getStreamTitle())
+                .containsExactly("alert 1", "alert 2", "alert 3");
+    }
+
+    @Test
+    public void testRequeueAfterCompletedFlushSchedules() throws Exception {
+        queue.offer(alert("alert 1", JabberOverloadPolicy.DROP_NEWEST));
+        final List<JabberAlert> failed = queue.drain(10);
+        assertThat(queue.completeFlush()).isFalse();
+
+        assertThat(queue.requeue(failed, 0L)).isTrue();
+        assertThat(queue.getBackoffMillis()).isZero();
+        assertThat(queue.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testDropNewest() throws Exception {
+        queue.offer(alert("alert 1", JabberOverloadPolicy.DROP_NEWEST));
+        queue.offer(alert("alert 2", JabberOverloadPolicy.DROP_NEWEST));
+        queue.offer(alert("alert 3", JabberOverloadPolicy.DROP_NEWEST));
+
+        assertThat(drops).containsExactly(JabberOverloadPolicy.DROP_NEWEST);
+        assertThat(queue.drain(10)).extracting(alert -> alert.getSnapshot().getStreamTitle()).containsExactly("alert 1", "alert 2");
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        queue.offer(alert("alert 1", JabberOverloadPolicy.DROP_OLDEST));
+        queue.offer(alert("alert 2", JabberOverloadPolicy.DROP_OLDEST));
+        queue.offer(alert("alert 3", JabberOverloadPolicy.DROP_OLDEST));
+
+        assertThat(drops).containsExactly(JabberOverloadPolicy.DROP_OLDEST);
+        assertThat(queue.drain(10)).extracting(alert -> alert.getSnapshot().getStreamTitle()).containsExactly("alert 2", "alert 3");
+    }
+
+    @Test
+    public void testBlockTimesOut() throws Exception {
+        queue.offer(alert("alert 1", JabberOverloadPolicy.BLOCK));
+        queue.offer(alert("alert 2", JabberOverloadPolicy.BLOCK));
+        try {
+            queue.offer(alert("alert 3", JabberOverloadPolicy.BLOCK));
+            fail("Expected AlarmCallbackException to be thrown.");
+        } catch (AlarmCallbackException e) {
+            assertThat(e).hasMessageStartingWith("Jabber delivery queue is full");
+        }
+
+        assertThat(drops).containsExactly(JabberOverloadPolicy.BLOCK);
+        assertThat(queue.pollSuppressedSummary()).isNull();
+
+        queue.drain(10);
+        assertThat(queue.pollSuppressedSummary().getMessage()).startsWith("1 Graylog alert(s) suppressed");
+    }
+
+    @Test
+    public void testCollapseIntoSummaryOnceDrained() throws Exception {
+        queue.offer(alert("alert 1", JabberOverloadPolicy.COLLAPSE));
+        queue.offer(alert("alert 2", JabberOverloadPolicy.COLLAPSE));
+        queue.offer(alert("A", JabberOverloadPolicy.COLLAPSE));
+        queue.offer(alert("A", JabberOverloadPolicy.COLLAPSE));
+        queue.offer(alert("B", JabberOverloadPolicy.COLLAPSE));
+
+        assertThat(queue.getSuppressed()).isEqualTo(3L);
+        assertThat(queue.pollSuppressedSummary()).isNull();
+
+        queue.drain(10);
+        assertThat(queue.pollSuppressedSummary().getMessage())
+                .startsWith("3 Graylog alert(s) suppressed")
+                .contains("2x Graylog alert for stream <A>")
+                .endsWith("1x Graylog alert for stream <B>");
+        assertThat(queue.pollSuppressedSummary()).isNull();
+    }
+
+    @Test
+    public void testRestoredSummaryIsReportedWithNextSummary() throws Exception {
+        queue.offer(alert("alert 1", JabberOverloadPolicy.COLLAPSE));
+        queue.offer(alert("alert 2", JabberOverloadPolicy.COLLAPSE));
+        queue.offer(alert("A", JabberOverloadPolicy.COLLAPSE));
+        queue.drain(10);
+        final JabberDeliveryQueue.SuppressedSummary failed = queue.pollSuppressedSummary();
+
+        queue.restoreSuppressedSummary(failed);
+        queue.offer(alert("alert 3", JabberOverloadPolicy.COLLAPSE));
+        queue.offer(alert("alert 4", JabberOverloadPolicy.COLLAPSE));
+        queue.offer(alert("A", JabberOverloadPolicy.COLLAPSE));
+        queue.offer(alert("B", JabberOverloadPolicy.COLLAPSE));
+        queue.drain(10);
+
+        assertThat(queue.pollSuppressedSummary().getMessage())
+                .startsWith("3 Graylog alert(s) suppressed")
+                .contains("2x Graylog alert for stream <A>")
+                .endsWith("1x Graylog alert for stream <B>");
+    }
+
+    private JabberAlert alert(String streamTitle, JabberOverloadPolicy policy) throws Exception {
+        final Map<String, Object> configSource = JabberTestFixtures.configSource();
+        configSource.put("priority", "normal");
+        configSource.put("queue_capacity", 2);
+        configSource.put("overload_policy", policy.getName());
+        configSource.put("block_timeout", 10);
+
+        return JabberTestFixtures.alert(JabberTestFixtures.plan(configSource), streamTitle);
+    }
+}
@@ -0,0 +1,395 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import org.graylog2.alerts.AbstractAlertCondition;
+import org.graylog2.plugin.alarms.callbacks.AlarmCallbackException;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.streams.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.graylog2.alarmcallbacks.jabber.JabberTestFixtures.alert;
+import static org.graylog2.alarmcallbacks.jabber.JabberTestFixtures.plan;
+import static org.graylog2.alarmcallbacks.jabber.JabberTestFixtures.render;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class JabberDeliveryServiceTest {
+    private Map<String, Object> configSource;
+    private RecordingMessageSender sender;
+    private JabberDeliveryService deliveryService;
+
+    @Before
+    public void setUp() {
+        configSource = JabberTestFixtures.configSource();
+        configSource.put("priority", "normal");
+        sender = new RecordingMessageSender();
+        deliveryService = deliveryService(Duration.minutes(5L));
+    }
+
+    private JabberDeliveryService deliveryService(final Duration idleTimeout) {
+        return new JabberDeliveryService(new MetricRegistry(),
+                new JabberTraceRecorder(Duration.seconds(5L), 10),
+                new JabberRetryPolicy(3, Duration.seconds(1L), Duration.seconds(1L)),
+                "fixed", 1, Duration.minutes(1L), idleTimeout, sender);
+    }
+
+    /**
+     * Raises an alert the way Graylog does, through a new alarm callback initialized with the current configuration.
+     */
+    private void call(final String streamTitle) throws Exception {
+        final JabberAlarmCallback callback = new JabberAlarmCallback(deliveryService);
+        callback.initialize(new Configuration(configSource));
+        final Stream stream = mock(Stream.class);
+        when(stream.getTitle()).thenReturn(streamTitle);
+        callback.call(stream, new AbstractAlertCondition.NegativeCheckResult());
+    }
+
+    private JabberDestination destination(final String recipient) {
+        for (JabberDestination destination : deliveryService.getDestinations()) {
+            if (destination.getPlan().getRecipient().toString().equals(recipient)) {
+                return destination;
+            }
+        }
+        return null;
+    }
+
+    @After
+    public void tearDown() {
+        deliveryService.shutdown(1000L);
+    }
+
+    @Test
+    public void testUrgentAlertIsSentOnCallingThread() throws Exception {
+        configSource.put("priority", "urgent");
+        final JabberDeliveryPlan plan = plan(configSource);
+        final JabberAlert alert = alert(plan, "Urgent");
+
+        deliveryService.deliver(alert);
+
+        assertThat(sender.getMessages()).containsExactly(render(alert));
+        assertThat(sender.getThreads()).containsExactly(Thread.currentThread());
+        assertThat(deliveryService.getQueueSize()).isZero();
+    }
+
+    @Test
+    public void testUrgentAlertReportsFailure() throws Exception {
+        configSource.put("priority", "urgent");
+        final JabberDeliveryPlan plan = plan(configSource);
+        sender.failSend(new AlarmCallbackException("Unable to connect to XMPP server"));
+
+        try {
+            deliveryService.deliver(alert(plan, "Urgent"));
+            fail("Expected AlarmCallbackException to be thrown.");
+        } catch (AlarmCallbackException e) {
+            assertThat(e).hasMessage("Unable to connect to XMPP server");
+        }
+    }
+
+    @Test
+    public void testNormalAlertsAreCoalescedIntoOneMessage() throws Exception {
+        final JabberDeliveryPlan plan = plan(configSource);
+        final JabberAlert first = alert(plan, "First");
+        final JabberAlert second = alert(plan, "Second");
+        final JabberAlert third = alert(plan, "Third");
+
+        deliveryService.deliver(first);
+        deliveryService.deliver(second);
+        deliveryService.deliver(third);
+
+        assertThat(deliveryService.getQueueSize()).isEqualTo(3);
+        assertThat(sender.awaitMessages(1)).containsExactly(
+                Joiner.on(JabberDeliveryService.BATCH_SEPARATOR).join(render(first), render(second), render(third)));
+        assertThat(sender.getThreads()).doesNotContain(Thread.currentThread());
+        assertThat(deliveryService.getQueueSize()).isZero();
+    }
+
+    @Test
+    public void testLargeBatchesAreSplitIntoSeveralMessages() throws Exception {
+        final JabberDeliveryPlan plan = plan(configSource);
+        // Three of these don't fit into one message.
+        final String title = Strings.repeat("x", JabberAlarmCallbackFormatter.MAX_MESSAGE_BYTES / 3);
+        final JabberAlert first = alert(plan, title);
+        final JabberAlert second = alert(plan, title);
+        // Fewer characters than the others, but three bytes each in UTF-8.
+        final JabberAlert third = alert(plan, Strings.repeat("\u20ac", JabberAlarmCallbackFormatter.MAX_MESSAGE_BYTES / 4));
+        final JabberAlert fourth = alert(plan, title);
+
+        deliveryService.deliver(first);
+        deliveryService.deliver(second);
+        deliveryService.deliver(third);
+        deliveryService.deliver(fourth);
+
+        final List<String> messages = sender.awaitMessages(3);
+        assertThat(messages).containsExactly(
+                Joiner.on(JabberDeliveryService.BATCH_SEPARATOR).join(render(first), render(second)),
+                render(third),
+                render(fourth));
+        for (String message : messages) {
+            assertThat(message.getBytes(StandardCharsets.UTF_8).length).isLessThanOrEqualTo(JabberAlarmCallbackFormatter.MAX_MESSAGE_BYTES);
+        }
+        final JabberDestination destination = deliveryService.getDestinations().iterator().next();
+        await().until(() -> destination.getDelivered() == 4L);
+    }
+
+    @Test
+    public void testOversizedAlertIsShortenedToFitIntoOneMessage() throws Exception {
+        configSource.put("priority", "urgent");
+        final JabberDeliveryPlan plan = plan(configSource);
+        // Three bytes per character in UTF-8, the whole backlog takes about 300 KB.
+        final List<String> backlog = Collections.nCopies(JabberAlertSnapshot.MAX_BACKLOG_LINES,
+                Strings.repeat("\u20ac", JabberAlertSnapshot.MAX_MESSAGE_LENGTH));
+        final JabberAlertSnapshot snapshot = new JabberAlertSnapshot("stream-id", "Stream", null, null, null, null, backlog, 5);
+
+        deliveryService.deliver(new JabberAlert(plan, snapshot, plan.priorityOf(null), new JabberAlertTrace()));
+
+        assertThat(sender.getMessages()).hasSize(1);
+        final String message = sender.getMessages().get(0);
+        assertThat(message.getBytes(StandardCharsets.UTF_8).length).isLessThanOrEqualTo(JabberAlarmCallbackFormatter.MAX_MESSAGE_BYTES);
+        // 43 backlog lines fit, the other 57 are counted together with the 5 the snapshot has already left out.
+        assertThat(message).endsWith(backlog.get(0) + "\n(62 more messages)\n");
+    }
+
+    @Test
+    public void testQueuedAlertFailsWhenSessionCannotBeEstablished() throws Exception {
+        final JabberDeliveryPlan plan = plan(configSource);
+        sender.failConnect(new AlarmCallbackException("Unable to connect to XMPP server"));
+
+        try {
+            deliveryService.deliver(alert(plan, "Normal"));
+            fail("Expected AlarmCallbackException to be thrown.");
+        } catch (AlarmCallbackException e) {
+            assertThat(e).hasMessage("Unable to connect to XMPP server");
+        }
+
+        final JabberDestination destination = deliveryService.getDestinations().iterator().next();
+        assertThat(deliveryService.getQueueSize()).isZero();
+        assertThat(destination.getFailed()).isEqualTo(1L);
+        assertThat(destination.getLastFailure()).isEqualTo("Unable to connect to XMPP server");
+    }
+
+    @Test
+    public void testFailedAlertsAreRetriedAheadOfNewAlerts() throws Exception {
+        final JabberDeliveryPlan plan = plan(configSource);
+        final JabberAlert first = alert(plan, "First");
+        final JabberAlert second = alert(plan, "Second");
+        sender.failSends(1, new AlarmCallbackException("Unable to send message"));
+
+        deliveryService.deliver(first);
+        final JabberDestination destination = deliveryService.getDestinations().iterator().next();
+        await().until(() -> destination.getRetried() == 1L);
+
+        // The failed alert waits for its retry in the queue.
+        assertThat(deliveryService.getQueueSize()).isEqualTo(1);
+        deliveryService.deliver(second);
+
+        assertThat(sender.awaitMessages(1)).containsExactly(
+                Joiner.on(JabberDeliveryService.BATCH_SEPARATOR).join(render(first), render(second)));
+        await().until(() -> destination.getDelivered() == 2L);
+        assertThat(first.getTrace().getAttempts()).isEqualTo(2);
+        assertThat(second.getTrace().getAttempts()).isEqualTo(1);
+        assertThat(deliveryService.getQueueSize()).isZero();
+    }
+
+    @Test
+    public void testRetriedAlertsCountTowardsQueueCapacity() throws Exception {
+        configSource.put("queue_capacity", 1);
+        configSource.put("overload_policy", "drop_newest");
+        final JabberDeliveryPlan plan = plan(configSource);
+        final JabberAlert first = alert(plan, "First");
+        sender.failSends(1, new AlarmCallbackException("Unable to send message"));
+
+        deliveryService.deliver(first);
+        final JabberDestination destination = deliveryService.getDestinations().iterator().next();
+        await().until(() -> destination.getRetried() == 1L);
+        deliveryService.deliver(alert(plan, "Second"));
+
+        assertThat(destination.getQueue().getSuppressed()).isEqualTo(1L);
+        final List<String> messages = sender.awaitMessages(2);
+        assertThat(messages.get(0)).isEqualTo(render(first));
+        assertThat(messages.get(1)).startsWith("1 Graylog alert(s) suppressed");
+    }
+
+    @Test
+    public void testFailedUrgentAlertIsNotRetried() throws Exception {
+        configSource.put("priority", "urgent");
+        final JabberAlert alert = alert(plan(configSource), "Urgent");
+        sender.failSends(1, new AlarmCallbackException("Unable to send message"));
+
+        try {
+            deliveryService.deliver(alert);
+            fail("Expected AlarmCallbackException to be thrown.");
+        } catch (AlarmCallbackException e) {
+            assertThat(e).hasMessage("Unable to send message");
+        }
+
+        final JabberDestination destination = deliveryService.getDestinations().iterator().next();
+        assertThat(deliveryService.getQueueSize()).isZero();
+        assertThat(destination.getRetried()).isZero();
+        assertThat(destination.getFailed()).isEqualTo(1L);
+        assertThat(alert.getTrace().getFailure()).isEqualTo("Unable to send message");
+        assertThat(sender.getSendAttempts()).isEqualTo(1);
+    }
+
+    @Test
+    public void testAlertFailsAfterLastAttempt() throws Exception {
+        final JabberAlert alert = alert(plan(configSource), "Stream");
+        sender.failSend(new AlarmCallbackException("Unable to send message"));
+
+        deliveryService.deliver(alert);
+        final JabberDestination destination = deliveryService.getDestinations().iterator().next();
+        await().until(() -> destination.getFailed() == 1L);
+
+        assertThat(sender.getSendAttempts()).isEqualTo(3);
+        assertThat(alert.getTrace().getAttempts()).isEqualTo(3);
+        assertThat(destination.getRetried()).isEqualTo(2L);
+        assertThat(destination.getLastFailure()).isEqualTo("Unable to send message");
+        assertThat(deliveryService.getQueueSize()).isZero();
+    }
+
+    @Test
+    public void testIdleDestinationIsRemoved() throws Exception {
+        deliveryService.shutdown(1000L);
+        deliveryService = deliveryService(Duration.milliseconds(200L));
+        configSource.put("priority", "urgent");
+        call("Stream");
+        final JabberDestination previous = destination("user2@example.org");
+
+        // Alerts for the changed recipient keep its destination in use, the previous one is removed.
+        configSource.put("recipient", "user3@example.org");
+        call("Stream");
+        final JabberDestination destination = destination("user3@example.org");
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+        while (deliveryService.getDestinations().contains(previous) && System.nanoTime() < deadline) {
+            Thread.sleep(50L);
+            call("Stream");
+        }
+
+        assertThat(deliveryService.getDestinations()).containsExactly(destination);
+        assertThat(destination.getDelivered()).isGreaterThanOrEqualTo(2L);
+
+        await().until(() -> deliveryService.getDestinations().isEmpty());
+        assertThat(previous.use()).isFalse();
+        assertThat(destination.use()).isFalse();
+    }
+
+    @Test
+    public void testDestinationIsKeptWhileAlertsAreQueued() throws Exception {
+        deliveryService.shutdown(1000L);
+        deliveryService = deliveryService(Duration.milliseconds(100L));
+        sender.failSends(1, new AlarmCallbackException("Unable to send message"));
+
+        call("Stream");
+        final JabberDestination destination = destination("user2@example.org");
+        await().until(() -> destination.getRetried() == 1L);
+
+        // The retry backoff is at least 500ms, the alert waits in the queue for several idle checks.
+        Thread.sleep(300L);
+        assertThat(deliveryService.getDestinations()).containsExactly(destination);
+        assertThat(deliveryService.getQueueSize()).isEqualTo(1);
+
+        await().until(() -> destination.getDelivered() == 1L);
+        await().until(() -> deliveryService.getDestinations().isEmpty());
+        assertThat(destination.getFailed()).isZero();
+    }
+
+    @Test
+    public void testShutdownRejectsNewAlerts() throws Exception {
+        final JabberDeliveryPlan plan = plan(configSource);
+
+        assertThat(deliveryService.shutdown(1000L)).isZero();
+
+        try {
+            deliveryService.deliver(alert(plan, "Stream"));
+            fail("Expected AlarmCallbackException to be thrown.");
+        } catch (AlarmCallbackException e) {
+            assertThat(e).hasMessageContaining("shutting down");
+        }
+    }
+
+    @Test
+    public void testShutdownSendsQueuedAlertsWithoutRetrying() throws Exception {
+        final JabberDeliveryPlan plan = plan(configSource);
+        deliveryService.deliver(alert(plan, "Stream"));
+        final JabberDestination destination = deliveryService.getDestinations().iterator().next();
+        sender.failSend(new AlarmCallbackException("Unable to send message"));
+
+        deliveryService.shutdown(5000L);
+
+        assertThat(deliveryService.getQueueSize()).isZero();
+        assertThat(destination.getFailed()).isEqualTo(1L);
+        assertThat(destination.getRetried()).isZero();
+        assertThat(deliveryService.getOpenSessions()).isZero();
+    }
+
+    @Test
+    public void testShutdownWaitsForBlockedDelivery() throws Exception {
+        configSource.put("queue_capacity", 1);
+        configSource.put("overload_policy", "block");
+        configSource.put("block_timeout", 10000);
+        final JabberDeliveryPlan plan = plan(configSource);
+        final JabberAlert first = alert(plan, "First");
+        final JabberAlert second = alert(plan, "Second");
+        deliveryService.deliver(first);
+        final Thread blocked = deliverInBackground(second);
+
+        assertThat(deliveryService.shutdown(5000L)).isZero();
+        blocked.join(5000L);
+
+        assertThat(sender.getMessages()).containsExactly(render(first), render(second));
+        assertThat(second.getTrace().getFailure()).isNull();
+    }
+
+    @Test
+    public void testDeliveryStillBlockedAfterShutdownTimeoutIsFailed() throws Exception {
+        configSource.put("queue_capacity", 1);
+        configSource.put("overload_policy", "block");
+        configSource.put("block_timeout", 10000);
+        final JabberDeliveryPlan plan = plan(configSource);
+        final JabberAlert second = alert(plan, "Second");
+        sender.holdSends();
+        try {
+            deliveryService.deliver(alert(plan, "First"));
+            final Thread blocked = deliverInBackground(second);
+
+            deliveryService.shutdown(200L);
+            blocked.join(5000L);
+        } finally {
+            sender.releaseSends();
+        }
+
+        // Either shutdown failed the alert it found in the queue, or the delivery removed it again.
+        assertThat(second.getTrace().isComplete()).isTrue();
+        assertThat(second.getTrace().getFailure()).isEqualTo("Not delivered before shutdown");
+        assertThat(deliveryService.getQueueSize()).isZero();
+    }
+
+    /**
+     * Delivers the alert on another thread and waits until the delivery blocks on the full queue.
+     */
+    private Thread deliverInBackground(final JabberAlert alert) throws Exception {
+        final Thread thread = new Thread(() -> {
+            try {
+                deliveryService.deliver(alert);
+            } catch (AlarmCallbackException ignored) {
+                // Checked through the trace of the alert.
+            }
+        });
+        thread.start();
+        await().until(() -> thread.getState() == Thread.State.TIMED_WAITING);
+        return thread;
+    }
+}
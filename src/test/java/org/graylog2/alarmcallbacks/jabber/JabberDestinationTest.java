@@ -0,0 +1,49 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JabberDestinationTest {
+    private JabberDeliveryPlan plan;
+
+    @Before
+    public void setUp() throws Exception {
+        plan = JabberTestFixtures.plan(JabberTestFixtures.configSource());
+    }
+
+    @Test
+    public void testNameDoesNotContainPassword() {
+        final JabberDestination destination = new JabberDestination(plan, (policy, alert) -> {}, new JabberBatchController(5000L));
+
+        assertThat(destination.getName())
+                .isEqualTo("user1@localhost -> user2@example.org via localhost:5222")
+                .doesNotContain("test1234");
+    }
+
+    @Test
+    public void testStatistics() {
+        final JabberDestination destination = new JabberDestination(plan, (policy, alert) -> {}, new JabberBatchController(5000L));
+
+        destination.sendStarted();
+        assertThat(destination.getInFlight()).isEqualTo(1);
+        destination.connectionOpened();
+        destination.alertDelivered(JabberTestFixtures.alert(plan, "alert 1"));
+        destination.sendFinished();
+
+        destination.sendStarted();
+        destination.connectionFailed();
+        destination.alertFailed("Unable to connect to XMPP server");
+        destination.sendFinished();
+
+        assertThat(destination.getInFlight()).isZero();
+        assertThat(destination.getDelivered()).isEqualTo(1L);
+        assertThat(destination.getFailed()).isEqualTo(1L);
+        assertThat(destination.getConnectionsOpened()).isEqualTo(1L);
+        assertThat(destination.getConnectionFailures()).isEqualTo(1L);
+        assertThat(destination.getDeliveryLatency().getCount()).isEqualTo(1L);
+        assertThat(destination.getLastFailure()).isEqualTo("Unable to connect to XMPP server");
+        assertThat(destination.getLastFailureAt()).isNotNull();
+    }
+}
@@ -0,0 +1,38 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import com.github.joschi.jadconfig.ValidationException;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class JabberExecutorTypeValidatorTest {
+    private final JabberExecutorTypeValidator validator = new JabberExecutorTypeValidator();
+
+    @Test
+    public void testValidExecutorTypes() throws Exception {
+        validator.validate(JabberPluginConfiguration.SENDER_EXECUTOR, "fixed");
+        validator.validate(JabberPluginConfiguration.SENDER_EXECUTOR, "WORK_STEALING");
+        validator.validate(JabberPluginConfiguration.SENDER_EXECUTOR, "virtual");
+    }
+
+    @Test
+    public void testUnknownExecutorType() throws Exception {
+        try {
+            validator.validate(JabberPluginConfiguration.SENDER_EXECUTOR, "cached");
+            fail("Expected ValidationException to be thrown.");
+        } catch (ValidationException e) {
+            assertThat(e).hasMessage("Parameter jabber_sender_executor must be one of [fixed, work_stealing, virtual] (found cached)");
+        }
+    }
+
+    @Test
+    public void testMissingExecutorType() throws Exception {
+        try {
+            validator.validate(JabberPluginConfiguration.SENDER_EXECUTOR, null);
+            fail("Expected ValidationException to be thrown.");
+        } catch (ValidationException e) {
+            assertThat(e).hasMessage("Parameter jabber_sender_executor must be set");
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JabberHostSelectorTest {
+    private final JabberHost first = new JabberHost("xmpp1.example.org", 5222);
+    private final JabberHost second = new JabberHost("xmpp2.example.org", 5222);
+    private final JabberHost third = new JabberHost("xmpp3.example.org", 5222);
+    private final List<JabberHost> hosts = Arrays.asList(first, second, third);
+
+    private final JabberHostSelector selector = new JabberHostSelector();
+
+    @Test
+    public void testUnmeasuredHostsKeepConfiguredOrder() {
+        assertThat(selector.order(hosts)).containsExactly(first, second, third);
+    }
+
+    @Test
+    public void testFastestHostIsPreferred() {
+        selector.connected(first, TimeUnit.MILLISECONDS.toNanos(300L));
+        selector.connected(second, TimeUnit.MILLISECONDS.toNanos(50L));
+        selector.connected(third, TimeUnit.MILLISECONDS.toNanos(100L));
+
+        assertThat(selector.order(hosts)).containsExactly(second, third, first);
+    }
+
+    @Test
+    public void testFailedHostsAreTriedLast() {
+        selector.connected(first, TimeUnit.MILLISECONDS.toNanos(50L));
+        selector.connected(second, TimeUnit.MILLISECONDS.toNanos(100L));
+        selector.connected(third, TimeUnit.MILLISECONDS.toNanos(200L));
+        selector.failed(first);
+
+        assertThat(selector.order(hosts)).containsExactly(second, third, first);
+        assertThat(selector.getHealth().get(first).isAvailable()).isFalse();
+        assertThat(selector.getHealth().get(first).getFailureRate()).isGreaterThan(0d);
+    }
+
+    @Test
+    public void testFailureRateOutweighsSmallLatencyAdvantage() {
+        selector.connected(first, TimeUnit.MILLISECONDS.toNanos(50L));
+        selector.connected(second, TimeUnit.MILLISECONDS.toNanos(60L));
+        selector.failed(first);
+        selector.failed(first);
+        // Connected again, so it is available, but it has been unreliable.
+        selector.connected(first, TimeUnit.MILLISECONDS.toNanos(50L));
+
+        assertThat(selector.order(Arrays.asList(first, second))).containsExactly(second, first);
+    }
+}
@@ -0,0 +1,74 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smack.packet.StreamError;
+import org.jivesoftware.smack.packet.XMPPError;
+import org.jivesoftware.smack.sasl.SASLErrorException;
+import org.jivesoftware.smack.sasl.packet.SaslStreamElements;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class JabberMessageSenderTest {
+    private final JabberMessageSender sender = new JabberMessageSender();
+    private List<JabberAccount> accounts;
+
+    @Before
+    public void setUp() throws Exception {
+        final Map<String, Object> configSource = JabberTestFixtures.configSource();
+        configSource.put("additional_accounts", "user3:secret");
+        accounts = JabberTestFixtures.plan(configSource).getAccounts();
+    }
+
+    @Test
+    public void testThrottledAccountIsUsedLast() {
+        final JabberSession session = mock(JabberSession.class);
+        when(session.getAccount()).thenReturn(accounts.get(0));
+        when(session.isUsable()).thenReturn(true);
+
+        sender.accountThrottled(session, "resource-constraint");
+
+        assertThat(sender.usableAccounts(accounts)).containsExactly(accounts.get(1), accounts.get(0));
+    }
+
+    @Test
+    public void testClosedSessionOfThrottledAccountIsClosed() {
+        final JabberSession session = mock(JabberSession.class);
+        when(session.getAccount()).thenReturn(accounts.get(1));
+
+        sender.accountThrottled(session, "policy-violation");
+
+        verify(session).close();
+        assertThat(sender.usableAccounts(accounts)).containsExactly(accounts.get(0), accounts.get(1));
+    }
+
+    @Test
+    public void testAccountFailures() {
+        assertThat(JabberMessageSender.isAccountFailure(new SASLErrorException("PLAIN",
+                new SaslStreamElements.SASLFailure("not-authorized")))).isTrue();
+        assertThat(JabberMessageSender.isAccountFailure(new XMPPException.XMPPErrorException(
+                XMPPError.getBuilder(XMPPError.Condition.resource_constraint)))).isTrue();
+        assertThat(JabberMessageSender.isAccountFailure(new XMPPException.XMPPErrorException(
+                XMPPError.getBuilder(XMPPError.Condition.forbidden)))).isTrue();
+    }
+
+    @Test
+    public void testHostFailures() {
+        assertThat(JabberMessageSender.isAccountFailure(new XMPPException.StreamErrorException(
+                new StreamError(StreamError.Condition.policy_violation, null, null, null)))).isFalse();
+        assertThat(JabberMessageSender.isAccountFailure(new XMPPException.StreamErrorException(
+                new StreamError(StreamError.Condition.system_shutdown, null, null, null)))).isFalse();
+        assertThat(JabberMessageSender.isAccountFailure(new XMPPException.XMPPErrorException(
+                XMPPError.getBuilder(XMPPError.Condition.remote_server_not_found)))).isFalse();
+        assertThat(JabberMessageSender.isAccountFailure(new SmackException.ConnectionException(new IOException("Connection refused")))).isFalse();
+    }
+}
@@ -0,0 +1,41 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import com.github.joschi.jadconfig.util.Duration;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JabberRetryPolicyTest {
+    private final JabberRetryPolicy retryPolicy = new JabberRetryPolicy(3, Duration.seconds(1L), Duration.seconds(10L));
+
+    @Test
+    public void testShouldRetry() {
+        assertThat(retryPolicy.shouldRetry(1)).isTrue();
+        assertThat(retryPolicy.shouldRetry(2)).isTrue();
+        assertThat(retryPolicy.shouldRetry(3)).isFalse();
+    }
+
+    @Test
+    public void testBackoffGrowsExponentiallyUpToMaximum() {
+        assertThat(retryPolicy.cappedBackoffMillis(1)).isEqualTo(1000L);
+        assertThat(retryPolicy.cappedBackoffMillis(2)).isEqualTo(2000L);
+        assertThat(retryPolicy.cappedBackoffMillis(4)).isEqualTo(8000L);
+        assertThat(retryPolicy.cappedBackoffMillis(5)).isEqualTo(10000L);
+        assertThat(retryPolicy.cappedBackoffMillis(Integer.MAX_VALUE)).isEqualTo(10000L);
+    }
+
+    @Test
+    public void testBackoffIsJittered() {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < 1000; i++) {
+            final long backoff = retryPolicy.backoffMillis(2);
+            min = Math.min(min, backoff);
+            max = Math.max(max, backoff);
+        }
+
+        assertThat(min).isGreaterThanOrEqualTo(1000L);
+        assertThat(max).isLessThanOrEqualTo(2000L);
+        assertThat(max - min).isGreaterThan(100L);
+    }
+}
@@ -0,0 +1,109 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.StreamError;
+import org.jivesoftware.smack.packet.XMPPError;
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
+import org.junit.Test;
+import org.jxmpp.jid.EntityBareJid;
+import org.jxmpp.jid.impl.JidCreate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class JabberSessionTest {
+    @Test
+    public void testFirstAvailableRecipient() throws Exception {
+        final List<EntityBareJid> recipients = Arrays.asList(
+                JidCreate.entityBareFrom("oncall@example.org"),
+                JidCreate.entityBareFrom("backup@example.org"),
+                JidCreate.entityBareFrom("lead@example.org"));
+
+        assertThat(JabberSession.firstAvailable(recipients, recipient -> true).toString())
+                .isEqualTo("oncall@example.org");
+        assertThat(JabberSession.firstAvailable(recipients, recipient -> !recipient.toString().startsWith("oncall")).toString())
+                .isEqualTo("backup@example.org");
+        assertThat(JabberSession.firstAvailable(recipients, recipient -> recipient.toString().startsWith("lead")).toString())
+                .isEqualTo("lead@example.org");
+    }
+
+    @Test
+    public void testFallsBackToFirstRecipientIfNobodyIsAvailable() throws Exception {
+        final List<EntityBareJid> recipients = Arrays.asList(
+                JidCreate.entityBareFrom("oncall@example.org"),
+                JidCreate.entityBareFrom("backup@example.org"));
+
+        assertThat(JabberSession.firstAvailable(recipients, recipient -> false).toString()).isEqualTo("oncall@example.org");
+    }
+
+    @Test
+    public void testIdleSessionIsRetired() throws Exception {
+        final JabberAccount account = JabberTestFixtures.plan(JabberTestFixtures.configSource()).getAccounts().get(0);
+        final JabberHost host = account.getHosts().get(0);
+        final JabberSession session = new JabberSession(account, host,
+                new XMPPTCPConnection(account.getConnectionConfiguration(host)));
+
+        assertThat(session.retireIfIdle(TimeUnit.MINUTES.toNanos(5L))).isFalse();
+        assertThat(session.use()).isTrue();
+        assertThat(session.retireIfIdle(0L)).isTrue();
+        assertThat(session.use()).isFalse();
+    }
+
+    @Test
+    public void testErrorHandlerReportsThrottledAccount() throws Exception {
+        final JabberSession session = mock(JabberSession.class);
+        final RecordingErrorListener listener = new RecordingErrorListener();
+        final JabberSession.ErrorHandler errorHandler = new JabberSession.ErrorHandler(session, listener);
+
+        errorHandler.processStanza(errorMessage(XMPPError.Condition.resource_constraint));
+        errorHandler.processStanza(errorMessage(XMPPError.Condition.item_not_found));
+        errorHandler.connectionClosedOnError(new XMPPException.StreamErrorException(
+                new StreamError(StreamError.Condition.policy_violation, null, null, null)));
+
+        assertThat(listener.throttled).containsExactly("resource-constraint", "policy-violation");
+        assertThat(listener.failed).isEmpty();
+    }
+
+    @Test
+    public void testErrorHandlerReportsFailedSession() throws Exception {
+        final RecordingErrorListener listener = new RecordingErrorListener();
+        final JabberSession.ErrorHandler errorHandler = new JabberSession.ErrorHandler(mock(JabberSession.class), listener);
+        final IOException connectionReset = new IOException("Connection reset");
+
+        errorHandler.connectionClosedOnError(connectionReset);
+        errorHandler.connectionClosedOnError(new XMPPException.StreamErrorException(
+                new StreamError(StreamError.Condition.system_shutdown, null, null, null)));
+
+        assertThat(listener.throttled).isEmpty();
+        assertThat(listener.failed).hasSize(2).contains(connectionReset);
+    }
+
+    private static Message errorMessage(final XMPPError.Condition condition) {
+        final Message message = new Message();
+        message.setType(Message.Type.error);
+        message.setError(XMPPError.getBuilder(condition));
+        return message;
+    }
+
+    private static class RecordingErrorListener implements JabberSession.ErrorListener {
+        private final List<String> throttled = new ArrayList<>();
+        private final List<Exception> failed = new ArrayList<>();
+
+        @Override
+        public void accountThrottled(final JabberSession session, final String condition) {
+            throttled.add(condition);
+        }
+
+        @Override
+        public void sessionFailed(final JabberSession session, final Exception e) {
+            failed.add(e);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.configuration.ConfigurationException;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Configuration and alerts shared by the unit tests.
+ */
+final class JabberTestFixtures {
+    private JabberTestFixtures() {
+    }
+
+    /**
+     * @return a mutable callback configuration for sending as {@code user1} to {@code user2@example.org}
+     */
+    static Map<String, Object> configSource() {
+        final Map<String, Object> configSource = new HashMap<>();
+        configSource.put("recipient", "user2@example.org");
+        configSource.put("hostname", "localhost");
+        configSource.put("port", 5222);
+        configSource.put("username", "user1");
+        configSource.put("password", "test1234");
+        return configSource;
+    }
+
+    static JabberDeliveryPlan plan(final Map<String, Object> configSource) throws ConfigurationException {
+        return JabberDeliveryPlan.compile(new Configuration(configSource));
+    }
+
+    /**
+     * @return an alert without backlog for the given stream, with the priority the plan assigns to it
+     */
+    static JabberAlert alert(final JabberDeliveryPlan plan, final String streamTitle) {
+        final JabberAlertSnapshot snapshot = new JabberAlertSnapshot("stream-id", streamTitle, null, null, null, null,
+                Collections.emptyList(), 0);
+        return new JabberAlert(plan, snapshot, plan.priorityOf(null), new JabberAlertTrace());
+    }
+
+    static String render(final JabberAlert alert) {
+        return alert.getPlan().getFormatter().render(alert.getSnapshot());
+    }
+}
@@ -0,0 +1,47 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import com.github.joschi.jadconfig.util.Duration;
+import org.graylog2.plugin.alarms.callbacks.AlarmCallbackException;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JabberTraceRecorderTest {
+    @Test
+    public void testFastTracesAreNotKept() {
+        final JabberTraceRecorder recorder = new JabberTraceRecorder(Duration.seconds(60L), 10);
+        final JabberAlertTrace trace = new JabberAlertTrace();
+
+        recorder.complete(trace, (String) null);
+
+        assertThat(trace.isComplete()).isTrue();
+        assertThat(recorder.getSlowTraces()).isEmpty();
+    }
+
+    @Test
+    public void testFailedTracesAreKept() {
+        final JabberTraceRecorder recorder = new JabberTraceRecorder(Duration.seconds(60L), 10);
+        final JabberAlertTrace trace = new JabberAlertTrace();
+
+        recorder.complete(trace, new AlarmCallbackException("Unable to send message", new IllegalStateException("boom")));
+
+        assertThat(recorder.getSlowTraces()).containsExactly(trace);
+        assertThat(trace.getFailure()).isEqualTo("Unable to send message: boom");
+    }
+
+    @Test
+    public void testSlowTracesAreKeptInRingBuffer() {
+        final JabberTraceRecorder recorder = new JabberTraceRecorder(Duration.milliseconds(0L), 2);
+        final JabberAlertTrace first = new JabberAlertTrace();
+        final JabberAlertTrace second = new JabberAlertTrace();
+        final JabberAlertTrace third = new JabberAlertTrace();
+
+        first.record(JabberAlertTrace.Span.RENDER, System.nanoTime());
+        recorder.complete(first, (String) null);
+        recorder.complete(second, (String) null);
+        recorder.complete(third, (String) null);
+
+        assertThat(recorder.getSlowTraces()).containsExactly(third, second);
+        assertThat(first.getSpanMillis()).containsOnlyKeys("render");
+    }
+}
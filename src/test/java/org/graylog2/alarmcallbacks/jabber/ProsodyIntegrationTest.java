@@ -1,5 +1,7 @@
 package org.graylog2.alarmcallbacks.jabber;
 
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.io.Resources;
@@ -63,6 +65,7 @@ public class ProsodyIntegrationTest {
     private Map<String, Object> configSource;
     private XMPPTCPConnection xmppConnection;
     private ChatManager chatManager;
+    private JabberDeliveryService deliveryService;
     private JabberAlarmCallback callback;
 
     @BeforeClass
@@ -77,7 +80,10 @@ public class ProsodyIntegrationTest {
 
     @Before
     public void setUp() {
-        callback = new JabberAlarmCallback();
+        deliveryService = new JabberDeliveryService(new MetricRegistry(),
+                new JabberTraceRecorder(Duration.seconds(5L), 10),
+                new JabberRetryPolicy(1, Duration.seconds(1L), Duration.seconds(1L)), "fixed", 2, Duration.seconds(5L), Duration.minutes(5L));
+        callback = new JabberAlarmCallback(deliveryService);
         configSource = new HashMap<>();
         configSource.put("hostname", PROSODY.getContainerIpAddress());
         configSource.put("port", PROSODY.getMappedPort(5222));
@@ -89,6 +95,7 @@ public class ProsodyIntegrationTest {
         if (xmppConnection != null && xmppConnection.isConnected()) {
             xmppConnection.disconnect();
         }
+        deliveryService.shutdown(5000L);
     }
 
     @Test
@@ -176,6 +183,28 @@ public class ProsodyIntegrationTest {
         }
     }
 
+    @Test
+    public void testSelfSignedNotAllowedWithQueuedDelivery() throws Exception {
+        configSource.put("username", "user1");
+        configSource.put("service_name", "example.net");
+        configSource.put("recipient", "user2@" + "example.net");
+        configSource.put("require_security", true);
+        configSource.put("accept_selfsigned", false);
+        configSource.put("priority", "normal");
+
+        final Configuration config = new Configuration(configSource);
+        callback.initialize(config);
+        callback.checkConfiguration();
+
+        final Stream mockStream = mock(Stream.class);
+        try {
+            callback.call(mockStream, new AbstractAlertCondition.NegativeCheckResult());
+            fail("Expected AlarmCallbackException to be thrown.");
+        } catch (AlarmCallbackException e) {
+            assertTrue(e.getMessage().startsWith("Unable to connect to XMPP server"));
+        }
+    }
+
     @Test
     public void testCASigned() throws Exception {
         configSource.put("username", "user1");
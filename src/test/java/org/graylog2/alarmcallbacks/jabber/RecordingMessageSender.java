@@ -0,0 +1,111 @@
+package org.graylog2.alarmcallbacks.jabber;
+
+import org.graylog2.plugin.alarms.callbacks.AlarmCallbackException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Message sender which records the messages instead of sending them, and fails on demand.
+ */
+class RecordingMessageSender extends JabberMessageSender {
+    private final List<String> messages = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile AlarmCallbackException connectFailure;
+    private final AtomicInteger sendFailures = new AtomicInteger();
+    private final AtomicInteger sendAttempts = new AtomicInteger();
+    private volatile AlarmCallbackException sendFailure;
+    private volatile CountDownLatch sendsHeld;
+
+    @Override
+    public void connect(final JabberDestination destination) throws AlarmCallbackException {
+        if (connectFailure != null) {
+            throw connectFailure;
+        }
+    }
+
+    @Override
+    public void send(final JabberDestination destination,
+                     final String messageBody,
+                     final Collection<JabberAlertTrace> traces) throws AlarmCallbackException {
+        sendAttempts.incrementAndGet();
+        final CountDownLatch held = sendsHeld;
+        if (held != null) {
+            try {
+                held.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AlarmCallbackException("Interrupted while sending message", e);
+            }
+        }
+        if (sendFailure != null && sendFailures.getAndDecrement() > 0) {
+            throw sendFailure;
+        }
+        synchronized (this) {
+            messages.add(messageBody);
+            threads.add(Thread.currentThread());
+            notifyAll();
+        }
+    }
+
+    void failConnect(final AlarmCallbackException failure) {
+        this.connectFailure = failure;
+    }
+
+    void failSend(final AlarmCallbackException failure) {
+        failSends(Integer.MAX_VALUE, failure);
+    }
+
+    /**
+     * Fails the next {@code count} sends, the following ones succeed again.
+     */
+    void failSends(final int count, final AlarmCallbackException failure) {
+        this.sendFailure = failure;
+        this.sendFailures.set(count);
+    }
+
+    /**
+     * Makes sends wait until {@link #releaseSends()} is called or the sending thread is interrupted.
+     */
+    void holdSends() {
+        this.sendsHeld = new CountDownLatch(1);
+    }
+
+    void releaseSends() {
+        final CountDownLatch held = sendsHeld;
+        if (held != null) {
+            held.countDown();
+        }
+    }
+
+    int getSendAttempts() {
+        return sendAttempts.get();
+    }
+
+    synchronized List<String> getMessages() {
+        return new ArrayList<>(messages);
+    }
+
+    synchronized List<Thread> getThreads() {
+        return new ArrayList<>(threads);
+    }
+
+    /**
+     * Waits until at least {@code count} messages have been sent.
+     */
+    synchronized List<String> awaitMessages(final int count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+        while (messages.size() < count) {
+            final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0L) {
+                throw new AssertionError("Expected " + count + " message(s), got " + messages.size());
+            }
+            wait(remaining);
+        }
+        return new ArrayList<>(messages);
+    }
+}
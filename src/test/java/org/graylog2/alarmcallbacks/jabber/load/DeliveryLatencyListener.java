@@ -0,0 +1,80 @@
+package org.graylog2.alarmcallbacks.jabber.load;
+
+import org.jivesoftware.smack.chat2.Chat;
+import org.jivesoftware.smack.chat2.IncomingChatMessageListener;
+import org.jivesoftware.smack.packet.Message;
+import org.jxmpp.jid.EntityBareJid;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Records the delivery latency of each generated alert found in an incoming message. Alerts are identified by the
+ * title of their stream, which may appear several times in a message if alerts have been coalesced. Collapsed alerts
+ * are only mentioned in a summary ("3x Graylog alert for stream ...") and don't count as delivered.
+ */
+public class DeliveryLatencyListener implements IncomingChatMessageListener {
+    private static final Pattern ALERT_HEADLINE = Pattern.compile("(?<!x )Graylog alert for stream <"
+            + JabberLoadGenerator.STREAM_TITLE_PREFIX + "(\\d+)>");
+
+    private final long[] scheduledNanos;
+    private final AtomicLongArray latencyNanos;
+    private final AtomicInteger delivered = new AtomicInteger();
+    private final AtomicInteger messages = new AtomicInteger();
+    private final AtomicLong lastReceivedNanos = new AtomicLong();
+
+    public DeliveryLatencyListener(final long[] scheduledNanos) {
+        this.scheduledNanos = scheduledNanos;
+        this.latencyNanos = new AtomicLongArray(scheduledNanos.length);
+        for (int i = 0; i < scheduledNanos.length; i++) {
+            latencyNanos.set(i, -1L);
+        }
+    }
+
+    @Override
+    public void newIncomingMessage(EntityBareJid from, Message message, Chat chat) {
+        final long now = System.nanoTime();
+        messages.incrementAndGet();
+        lastReceivedNanos.set(now);
+
+        final Matcher matcher = ALERT_HEADLINE.matcher(message.getBody());
+        while (matcher.find()) {
+            final int sequence = Integer.parseInt(matcher.group(1));
+            if (sequence < scheduledNanos.length && latencyNanos.compareAndSet(sequence, -1L, now - scheduledNanos[sequence])) {
+                delivered.incrementAndGet();
+            }
+        }
+    }
+
+    public int getDelivered() {
+        return delivered.get();
+    }
+
+    public int getMessages() {
+        return messages.get();
+    }
+
+    public long getLastReceivedNanos() {
+        return lastReceivedNanos.get();
+    }
+
+    /**
+     * @return the sorted latencies of all delivered alerts
+     */
+    public long[] sortedLatencies() {
+        final long[] latencies = new long[delivered.get()];
+        int n = 0;
+        for (int i = 0; i < latencyNanos.length() && n < latencies.length; i++) {
+            final long latency = latencyNanos.get(i);
+            if (latency >= 0L) {
+                latencies[n++] = latency;
+            }
+        }
+        Arrays.sort(latencies, 0, n);
+        return Arrays.copyOf(latencies, n);
+    }
+}
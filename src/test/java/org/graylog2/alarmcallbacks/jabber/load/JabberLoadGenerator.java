@@ -0,0 +1,260 @@
+package org.graylog2.alarmcallbacks.jabber.load;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.base.Strings;
+import org.graylog2.alarmcallbacks.jabber.JabberAlarmCallback;
+import org.graylog2.alarmcallbacks.jabber.JabberDeliveryService;
+import org.graylog2.alarmcallbacks.jabber.JabberDestination;
+import org.graylog2.alarmcallbacks.jabber.JabberRetryPolicy;
+import org.graylog2.alarmcallbacks.jabber.JabberTraceRecorder;
+import org.graylog2.alarmcallbacks.jabber.testcontainers.ProsodyContainer;
+import org.graylog2.alerts.AbstractAlertCondition;
+import org.graylog2.alerts.types.DummyAlertCondition;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageSummary;
+import org.graylog2.plugin.alarms.AlertCondition;
+import org.graylog2.plugin.alarms.callbacks.AlarmCallbackException;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.streams.Stream;
+import org.jivesoftware.smack.chat2.ChatManager;
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
+import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays synthetic alerts at a fixed rate through {@link JabberAlarmCallback} and reports throughput and delivery
+ * latency, as seen by a client logged in as the recipient.
+ * <p>
+ * Unless {@code jabber.load.hostname} is set, a local Prosody container is started as XMPP server. All other
+ * settings are read from system properties as well, so runs with different connection reuse, batching and executor
+ * choices can be compared:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.graylog2.alarmcallbacks.jabber.load.JabberLoadGenerator \
+ *     -Djabber.load.rate=200 -Djabber.load.priority=urgent -Djabber.load.executor=work_stealing
+ * </pre>
+ * Latencies are measured from the time an alert was scheduled to be raised, not from the time it actually was, so a
+ * generator which falls behind shows up in the latency instead of hiding it.
+ */
+public class JabberLoadGenerator {
+    static final String STREAM_TITLE_PREFIX = "load-";
+
+    private static final String DOMAIN = "example.org";
+    private static final String SENDER = "user1";
+    private static final String RECIPIENT = "user2";
+
+    private final int rate;
+    private final int durationSeconds;
+    private final int backlogSize;
+    private final int messageLength;
+    private final String priority;
+    private final String overloadPolicy;
+    private final int queueCapacity;
+    private final String executor;
+    private final int threads;
+    private final boolean reuseConnections;
+    private final int drainTimeoutSeconds;
+
+    public JabberLoadGenerator() {
+        this.rate = Integer.getInteger("jabber.load.rate", 50);
+        this.durationSeconds = Integer.getInteger("jabber.load.duration", 30);
+        this.backlogSize = Integer.getInteger("jabber.load.backlog", 10);
+        this.messageLength = Integer.getInteger("jabber.load.message-length", 200);
+        this.priority = System.getProperty("jabber.load.priority", "normal");
+        this.overloadPolicy = System.getProperty("jabber.load.overload-policy", "block");
+        this.queueCapacity = Integer.getInteger("jabber.load.queue-capacity", 1000);
+        this.executor = System.getProperty("jabber.load.executor", "fixed");
+        this.threads = Integer.getInteger("jabber.load.threads", 4);
+        this.reuseConnections = Boolean.parseBoolean(System.getProperty("jabber.load.reuse-connections", "true"));
+        this.drainTimeoutSeconds = Integer.getInteger("jabber.load.drain-timeout", 30);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final JabberLoadGenerator generator = new JabberLoadGenerator();
+        final String hostname = System.getProperty("jabber.load.hostname");
+        if (hostname != null) {
+            final String password = System.getProperty("jabber.load.password", "test1234");
+            generator.run(hostname, Integer.getInteger("jabber.load.port", 5222), password);
+        } else {
+            final ProsodyContainer prosody = new ProsodyContainer();
+            prosody.start();
+            try {
+                prosody.createUser(SENDER, "test1234", DOMAIN);
+                prosody.createUser(RECIPIENT, "test1234", DOMAIN);
+                generator.run(prosody.getContainerIpAddress(), prosody.getMappedPort(5222), "test1234");
+            } finally {
+                prosody.stop();
+            }
+        }
+        System.exit(0);
+    }
+
+    public void run(final String hostname, final int port, final String password) throws Exception {
+        final int alerts = rate * durationSeconds;
+        final long intervalNanos = TimeUnit.SECONDS.toNanos(1L) / rate;
+        final List<MessageSummary> backlog = backlog();
+
+        final JabberDeliveryService deliveryService = new JabberDeliveryService(new MetricRegistry(),
+                new JabberTraceRecorder(Duration.seconds(5L), 10),
+                new JabberRetryPolicy(3, Duration.seconds(1L), Duration.seconds(10L)),
+                executor, threads, Duration.seconds(5L), Duration.minutes(5L));
+        final JabberAlarmCallback callback = new JabberAlarmCallback(deliveryService);
+        callback.initialize(new Configuration(configuration(hostname, port, password)));
+        callback.checkConfiguration();
+
+        final XMPPTCPConnection receiver = new XMPPTCPConnection(XMPPTCPConnectionConfiguration.builder()
+                .setUsernameAndPassword(RECIPIENT, password)
+                .setXmppDomain(DOMAIN)
+                .setHost(hostname)
+                .setPort(port)
+                .setSecurityMode(XMPPTCPConnectionConfiguration.SecurityMode.disabled)
+                .build());
+        receiver.connect().login();
+
+        // The schedule is fixed up front, so the listener never sees a slot which is still being written.
+        final long[] scheduledNanos = new long[alerts];
+        final long start = System.nanoTime();
+        for (int i = 0; i < alerts; i++) {
+            scheduledNanos[i] = start + i * intervalNanos;
+        }
+        final DeliveryLatencyListener listener = new DeliveryLatencyListener(scheduledNanos);
+        ChatManager.getInstanceFor(receiver).addIncomingListener(listener);
+
+        int failedCalls = 0;
+        for (int i = 0; i < alerts; i++) {
+            final long delay = scheduledNanos[i] - System.nanoTime();
+            if (delay > 0L) {
+                LockSupport.parkNanos(delay);
+            }
+
+            final Stream stream = stream(i);
+            try {
+                callback.call(stream, checkResult(stream, backlog));
+            } catch (AlarmCallbackException e) {
+                failedCalls++;
+            }
+            if (!reuseConnections) {
+                deliveryService.closeSessions();
+            }
+        }
+        final long generated = System.nanoTime();
+
+        // Wait for the queues to drain, giving up once nothing has arrived for a while.
+        while (listener.getDelivered() < alerts) {
+            final long lastActivity = Math.max(generated, listener.getLastReceivedNanos());
+            if (System.nanoTime() - lastActivity > TimeUnit.SECONDS.toNanos(drainTimeoutSeconds)) {
+                break;
+            }
+            Thread.sleep(100L);
+        }
+
+        report(alerts, failedCalls, start, generated, listener, deliveryService);
+        receiver.disconnect();
+    }
+
+    private Map<String, Object> configuration(final String hostname, final int port, final String password) {
+        final Map<String, Object> configSource = new HashMap<>();
+        configSource.put("hostname", hostname);
+        configSource.put("port", port);
+        configSource.put("service_name", DOMAIN);
+        configSource.put("username", SENDER);
+        configSource.put("password", password);
+        configSource.put("recipient", RECIPIENT + "@" + DOMAIN);
+        configSource.put("require_security", false);
+        configSource.put("accept_selfsigned", true);
+        configSource.put("priority", priority);
+        configSource.put("overload_policy", overloadPolicy);
+        configSource.put("queue_capacity", queueCapacity);
+        return configSource;
+    }
+
+    private List<MessageSummary> backlog() {
+        final List<MessageSummary> backlog = new ArrayList<>(backlogSize);
+        for (int i = 0; i < backlogSize; i++) {
+            final String message = Strings.padEnd("Load test message " + i + " ", messageLength, 'x');
+            backlog.add(new MessageSummary("graylog_0", new Message(message, "load-generator", DateTime.now(DateTimeZone.UTC))));
+        }
+        return Collections.unmodifiableList(backlog);
+    }
+
+    private static AlertCondition.CheckResult checkResult(final Stream stream, final List<MessageSummary> backlog) {
+        final DateTime now = DateTime.now(DateTimeZone.UTC);
+        final DummyAlertCondition condition = new DummyAlertCondition(stream, "load-condition", now, "load-generator",
+                Collections.emptyMap(), "Load test");
+        return new AbstractAlertCondition.CheckResult(true, condition, "Load test", now, backlog);
+    }
+
+    /**
+     * Minimal stream whose title identifies the alert. Cheaper than a mock, which matters at high rates.
+     */
+    private static Stream stream(final int sequence) {
+        final String id = String.format(Locale.ENGLISH, "%024x", sequence);
+        final String title = STREAM_TITLE_PREFIX + sequence;
+        return (Stream) Proxy.newProxyInstance(Stream.class.getClassLoader(), new Class<?>[]{Stream.class},
+                (proxy, method, methodArgs) -> {
+                    switch (method.getName()) {
+                        case "getId":
+                            return id;
+                        case "getTitle":
+                        case "toString":
+                            return title;
+                        case "hashCode":
+                            return sequence;
+                        case "equals":
+                            return proxy == methodArgs[0];
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private void report(final int alerts,
+                        final int failedCalls,
+                        final long start,
+                        final long generated,
+                        final DeliveryLatencyListener listener,
+                        final JabberDeliveryService deliveryService) {
+        final long[] latencies = listener.sortedLatencies();
+        final long end = Math.max(generated, listener.getLastReceivedNanos());
+        final double elapsedSeconds = (end - start) / 1e9d;
+
+        final StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.ENGLISH, "rate=%d/s duration=%ds backlog=%d message_length=%d priority=%s overload_policy=%s%n",
+                rate, durationSeconds, backlogSize, messageLength, priority, overloadPolicy));
+        out.append(String.format(Locale.ENGLISH, "executor=%s threads=%d reuse_connections=%s%n",
+                executor, threads, reuseConnections));
+        out.append(String.format(Locale.ENGLISH, "generated=%d (%.1f/s) delivered=%d failed_calls=%d messages=%d%n",
+                alerts, alerts / ((generated - start) / 1e9d), latencies.length, failedCalls, listener.getMessages()));
+        out.append(String.format(Locale.ENGLISH, "throughput=%.1f alerts/s%n", latencies.length / elapsedSeconds));
+        out.append(String.format(Locale.ENGLISH, "latency p50=%.1fms p99=%.1fms p999=%.1fms max=%.1fms%n",
+                percentileMillis(latencies, 0.5d), percentileMillis(latencies, 0.99d),
+                percentileMillis(latencies, 0.999d), percentileMillis(latencies, 1.0d)));
+        for (JabberDestination destination : deliveryService.getDestinations()) {
+            out.append(String.format(Locale.ENGLISH, "destination delivered=%d retried=%d failed=%d connections_opened=%d batch_size=%d flush_interval=%dms%n",
+                    destination.getDelivered(), destination.getRetried(), destination.getFailed(),
+                    destination.getConnectionsOpened(), destination.getBatchController().getBatchSize(),
+                    destination.getBatchController().getFlushIntervalMillis()));
+        }
+        System.out.print(out);
+    }
+
+    static double percentileMillis(final long[] sortedNanos, final double percentile) {
+        if (sortedNanos.length == 0) {
+            return Double.NaN;
+        }
+        final int index = Math.max(0, (int) Math.ceil(percentile * sortedNanos.length) - 1);
+        return sortedNanos[index] / 1e6d;
+    }
+}